@@ -0,0 +1,264 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hubersn.util.io.FileUtils;
+
+/**
+ * Measures the conversion of a single big manual with one thread against several threads - a manual
+ * with the given number of pages is generated into a temporary directory and converted repeatedly
+ * with StrongHelpConverter.
+ */
+public class StrongHelpConverterBenchmark {
+
+  private static final int DEFAULT_PAGE_COUNT = 5000;
+
+  private static final int PAGES_PER_DIR = 250;
+
+  private static final int ROUNDS = 3;
+
+  private static final long DIR_LOAD_ADDR = 0xFFFFDD00L;
+
+  private static final long TEXT_LOAD_ADDR = 0xFFFFFF00L;
+
+  /** Entry of a directory of the generated manual. */
+  private static class DirEntry {
+    private final String name;
+    private final int offset;
+    private final int size;
+    private final long loadAddr;
+
+    private DirEntry(final String name, final int offset, final int size, final long loadAddr) {
+      this.name = name;
+      this.offset = offset;
+      this.size = size;
+      this.loadAddr = loadAddr;
+    }
+  }
+
+  private static void writeWord(final ByteArrayOutputStream image, final long word) {
+    image.write((int) word);
+    image.write((int) (word >> 8));
+    image.write((int) (word >> 16));
+    image.write((int) (word >> 24));
+  }
+
+  private static void align(final ByteArrayOutputStream image) {
+    while (image.size() % 4 != 0) {
+      image.write(0);
+    }
+  }
+
+  private static DirEntry addPage(final ByteArrayOutputStream image, final String name, final String text) {
+    final int offset = image.size();
+    final byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+    image.write('D');
+    image.write('A');
+    image.write('T');
+    image.write('A');
+    writeWord(image, data.length + 8);
+    image.write(data, 0, data.length);
+    align(image);
+    return new DirEntry(name, offset, data.length + 8, TEXT_LOAD_ADDR);
+  }
+
+  private static DirEntry addDir(final ByteArrayOutputStream image, final String name, final List<DirEntry> entries) {
+    final ByteArrayOutputStream dirEntries = new ByteArrayOutputStream();
+    for (final DirEntry entry : entries) {
+      writeWord(dirEntries, entry.offset);
+      writeWord(dirEntries, entry.loadAddr);
+      writeWord(dirEntries, 0);
+      writeWord(dirEntries, entry.size);
+      writeWord(dirEntries, 0);
+      writeWord(dirEntries, 0);
+      final byte[] entryName = entry.name.getBytes(StandardCharsets.ISO_8859_1);
+      dirEntries.write(entryName, 0, entryName.length);
+      dirEntries.write(0);
+      align(dirEntries);
+    }
+    final int offset = image.size();
+    final int size = 12 + dirEntries.size();
+    image.write('D');
+    image.write('I');
+    image.write('R');
+    image.write('$');
+    writeWord(image, size);
+    writeWord(image, size);
+    image.write(dirEntries.toByteArray(), 0, dirEntries.size());
+    align(image);
+    return new DirEntry(name, offset, size, DIR_LOAD_ADDR);
+  }
+
+  private static String getPageText(final int dirNumber, final int pageNumber, final int pagesPerDir) {
+    final StringBuilder text = new StringBuilder();
+    text.append("Page ").append(pageNumber).append(" of section ").append(dirNumber).append('\n');
+    text.append("#Parent !Root\n");
+    text.append("#include Header\n");
+    for (int i = 0; i < 10; i++) {
+      text.append("Line ").append(i).append(" with *bold*, /italic/ and _underlined_ text, see <Page ")
+          .append((pageNumber + i + 1) % pagesPerDir).append("=>P").append((pageNumber + i + 1) % pagesPerDir)
+          .append("> and <Contents=>!Root>.\n");
+    }
+    text.append("#Line\n");
+    for (int i = 0; i < 5; i++) {
+      text.append('\t').append("Name").append(i).append('\t').append("{fCode}value ").append(i).append("{f}\t<Back=>!Root>\n");
+    }
+    return text.toString();
+  }
+
+  /**
+   * Creates a manual with the given number of pages, spread over several directories that each include a shared header.
+   */
+  private static byte[] createManual(final int pageCount) {
+    final ByteArrayOutputStream image = new ByteArrayOutputStream(pageCount * 1024);
+    // header is filled in when the root directory is known
+    for (int i = 0; i < 32; i++) {
+      image.write(0);
+    }
+    final List<DirEntry> rootEntries = new ArrayList<>();
+    final StringBuilder rootText = new StringBuilder("Benchmark manual\n");
+    final int dirCount = (pageCount + PAGES_PER_DIR - 1) / PAGES_PER_DIR;
+    for (int dirNumber = 0; dirNumber < dirCount; dirNumber++) {
+      final int pagesInDir = Math.min(PAGES_PER_DIR, pageCount - dirNumber * PAGES_PER_DIR);
+      final List<DirEntry> dirEntries = new ArrayList<>();
+      dirEntries.add(addPage(image, "!Root", "Section " + dirNumber + "\n#Parent !Root\nFirst page is <P0>.\n"));
+      for (int pageNumber = 0; pageNumber < pagesInDir; pageNumber++) {
+        dirEntries.add(addPage(image, "P" + pageNumber, getPageText(dirNumber, pageNumber, pagesInDir)));
+      }
+      rootEntries.add(addDir(image, "Section" + dirNumber, dirEntries));
+      rootText.append("<Section ").append(dirNumber).append("=>Section").append(dirNumber).append(">\n");
+    }
+    rootEntries.add(addPage(image, "Header", "Header\nShared header included by every page, back to <Contents=>!Root>.\n"));
+    rootEntries.add(addPage(image, "!Root", rootText.toString()));
+    final DirEntry root = addDir(image, "$", rootEntries);
+    for (int i = 0; i < 32; i++) {
+      image.write(0);
+    }
+    final ByteBuffer manual = ByteBuffer.wrap(image.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    manual.put(0, (byte) 'H').put(1, (byte) 'E').put(2, (byte) 'L').put(3, (byte) 'P');
+    manual.putInt(4, 32);
+    manual.putInt(8, 233);
+    manual.putInt(16, root.offset);
+    manual.putInt(20, (int) DIR_LOAD_ADDR);
+    return manual.array();
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Converts the given manual once and returns the elapsed time in milliseconds.
+   */
+  private static long convert(final File manualFile, final File workDir, final int threads) throws IOException {
+    final File targetDir = new File(workDir, "html");
+    delete(targetDir);
+    final long startTime = System.nanoTime();
+    StrongHelpConverter.main(new String[] { "-threads", Integer.toString(threads), "-target", targetDir.getAbsolutePath(), manualFile.getAbsolutePath() });
+    return (System.nanoTime() - startTime) / 1000000;
+  }
+
+  /**
+   * Returns the best time of several conversions of the given manual, after one conversion to warm up.
+   */
+  private static long measure(final File manualFile, final File workDir, final int threads) throws IOException {
+    convert(manualFile, workDir, threads);
+    long bestMillis = Long.MAX_VALUE;
+    for (int i = 0; i < ROUNDS; i++) {
+      bestMillis = Math.min(bestMillis, convert(manualFile, workDir, threads));
+    }
+    return bestMillis;
+  }
+
+  /**
+   * @param args
+   */
+  public static void main(String[] args) {
+    int pageCount = DEFAULT_PAGE_COUNT;
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    try {
+      if (args.length > 0) {
+        pageCount = Integer.parseInt(args[0]);
+      }
+      if (args.length > 1) {
+        threads = Integer.parseInt(args[1]);
+      }
+    } catch (final NumberFormatException nfx) {
+      printUsage();
+      System.exit(1);
+    }
+    File workDir = null;
+    try {
+      workDir = File.createTempFile("shbench", "");
+      workDir.delete();
+      workDir.mkdirs();
+      final File manualFile = new File(workDir, "Benchmark,3d6");
+      FileUtils.save(manualFile, ByteBuffer.wrap(createManual(pageCount)));
+      System.out.println("Converting generated manual with " + pageCount + " pages (" + manualFile.length() + " bytes), best of " + ROUNDS + " rounds");
+      final long singleMillis = measure(manualFile, workDir, 1);
+      System.out.println("  1 thread:  " + singleMillis + "ms");
+      final long parallelMillis = measure(manualFile, workDir, threads);
+      System.out.println("  " + threads + " threads: " + parallelMillis + "ms");
+      System.out.println(String.format("  speedup:   %.2f", (double) singleMillis / Math.max(1, parallelMillis)));
+    } catch (final Exception ex) {
+      ex.printStackTrace();
+      System.exit(1);
+    } finally {
+      if (workDir != null) {
+        delete(workDir);
+      }
+    }
+  }
+
+  private static void printUsage() {
+    System.out.println("Usage: StrongHelpConverterBenchmark [<number of pages> [<number of threads>]]");
+    System.out.println("");
+    System.out.println("Generates a manual with the given number of pages (default " + DEFAULT_PAGE_COUNT + ") and measures its conversion");
+    System.out.println("with one thread against the given number of threads (default: number of processors).");
+  }
+}
@@ -99,6 +99,8 @@ public class StrongHelp {
 
   private String manualsDirectoryNameFromMain;
 
+  private boolean memoryMapped = false;
+
   private Map<File, StrongHelpManual> manualCache = new HashMap<>();
 
   private Map<String, File> allManuals = new HashMap<>();
@@ -115,17 +117,19 @@ public class StrongHelp {
    * 
    * @return
    */
-  public static SHFontConfig getGlobalFontConfig() {
+  public static synchronized SHFontConfig getGlobalFontConfig() {
     if (globalFontConfig == null) {
-      globalFontConfig = new SHFontConfig();
+      // only publish the config when completely read - manuals may be opened concurrently
+      final SHFontConfig fontConfig = new SHFontConfig();
       try (final InputStream mainConfigure = StrongHelpManual.class.getResourceAsStream("/manuals/!Configure")) {
-        globalFontConfig.readConfig(mainConfigure);
+        fontConfig.readConfig(mainConfigure);
       } catch (IOException e) {
         // non-essential style config
         //if someone ruined our packaging, there is nothing we can do - trace and continue
         System.err.println("Failed to read main !Configure - continuing.");
         e.printStackTrace();
       }
+      globalFontConfig = fontConfig;
     }
     return globalFontConfig;
   }
@@ -149,7 +153,7 @@ public class StrongHelp {
     try {
       StrongHelpManual shr = this.manualCache.get(file);
       if (shr == null) {
-        shr = new StrongHelpManual(this, file);
+        shr = new StrongHelpManual(this, file, this.memoryMapped);
         this.manualCache.put(file, shr);
       }
       shr.show();
@@ -163,7 +167,7 @@ public class StrongHelp {
     try {
       StrongHelpManual shr = this.manualCache.get(file);
       if (shr == null) {
-        shr = new StrongHelpManual(this, file);
+        shr = new StrongHelpManual(this, file, this.memoryMapped);
         this.manualCache.put(file, shr);
       }
       shr.showPage(pagePath);
@@ -376,6 +380,16 @@ public class StrongHelp {
       if ("-v".equalsIgnoreCase(arg)) {
         strongHelp.debug = true;
       }
+      if ("-mmap".equalsIgnoreCase(arg)) {
+        strongHelp.memoryMapped = true;
+      }
+      if ("-compact".equalsIgnoreCase(arg)) {
+        StrongHelpManual.setUseCompactTree(true);
+      }
+      if ("-indexcache".equalsIgnoreCase(arg)) {
+        i++;
+        StrongHelpManual.setIndexCacheDirectory(new File(args[i]));
+      }
       if ("-help".equalsIgnoreCase(arg) || "-?".equals(arg)) {
         printUsage();
         System.exit(0);
@@ -418,9 +432,12 @@ public class StrongHelp {
   }
 
   private static void printUsage() {
-    System.out.println("Usage: StrongHelp [-v] [-manualdir <directory with all known manuals inside>] [<file or directory pathname>]");
+    System.out.println("Usage: StrongHelp [-v] [-mmap] [-compact] [-indexcache <directory>] [-manualdir <directory with all known manuals inside>] [<file or directory pathname>]");
     System.out.println("Options:");
     System.out.println("  -v                activate debug/verbose mode");
+    System.out.println("  -mmap             memory-map manuals instead of loading them to the heap");
+    System.out.println("  -compact          keep directory structure of manuals in a compact tree");
+    System.out.println("  -indexcache <dir> keep directory index of manuals in given directory");
     System.out.println("  -manualdir <path> adds given path to manual search path");
     System.out.println("Examples:");
     System.out.println("  Open filechooser to choose manual to show: StrongHelp");
@@ -447,6 +464,10 @@ public class StrongHelp {
   }
 
   public static void dumpDirStructure(final SHIDir dir, final int indent) {
+    if (!debug) {
+      // avoid reading all directories of a manual just for tracing
+      return;
+    }
     d("Dir " + dir, indent);
     for (final SHIEntry entry : dir.getEntries()) {
       if (entry instanceof SHIDir) {
@@ -32,16 +32,34 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.hubersn.riscos.stronghelp.content.SHPage;
-import com.hubersn.riscos.stronghelp.imagefile.SHIDir;
-import com.hubersn.riscos.stronghelp.imagefile.SHIEntry;
-import com.hubersn.riscos.stronghelp.imagefile.SHIFile;
-import com.hubersn.riscos.stronghelp.imagefile.SHILink;
+import com.hubersn.riscos.stronghelp.imagefile.SHICompactTree;
+import com.hubersn.riscos.util.encoding.Text;
+import com.hubersn.riscos.util.fs.LoadExec;
+import com.hubersn.util.io.FileUtils;
 
 /**
  * Converts a given StrongHelp manual or a directory of StrongHelp manuals into
@@ -53,75 +71,298 @@ public class StrongHelpConverter {
 
   private static boolean verbose = false;
 
-  private static void createFile(final File targetDirectory, final SHIFile fileEntry, final StrongHelpManual shr) throws Exception {
-    // temporarily skip "link" files, don't know how to handle those...
-    if (fileEntry instanceof SHILink) {
-      return;
+  private static boolean memoryMapped = false;
+
+  private static boolean externalStyleSheet = false;
+
+  private static boolean reproducible = false;
+
+  private static int threads = 1;
+
+  /** Outcome of the conversion of a single file of a manual directory. */
+  private static enum ConversionResult {
+    CONVERTED,
+    NO_MANUAL,
+    FAILED
+  }
+
+  /** Name of the style sheet shared by all pages of a manual. */
+  private static final String STYLE_SHEET_NAME = "style.css";
+
+  /** Pool to convert manuals and render their pages on, null to do everything on the calling thread. */
+  private static ForkJoinPool pool;
+
+  /** Number of files and directories of manuals that could not be converted. */
+  private static final AtomicInteger failedFileCount = new AtomicInteger();
+
+  /** Name of the copy of the !Root page. */
+  private static final String INDEX_FILE_NAME = "index.html";
+
+  /**
+   * Creates the target files of a directory of a manual and its subdirectories as tasks on the pool.
+   */
+  private static class DirTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final File targetDirectory;
+    private final int dirIndex;
+    private final StrongHelpManual shr;
+    private final String rootPath;
+
+    private DirTask(final File targetDirectory, final int dirIndex, final StrongHelpManual shr, final String rootPath) {
+      this.targetDirectory = targetDirectory;
+      this.dirIndex = dirIndex;
+      this.shr = shr;
+      this.rootPath = rootPath;
+    }
+
+    @Override
+    protected void compute() {
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      convertDir(this.targetDirectory, this.dirIndex, this.shr, this.rootPath, tasks);
+      // failures are handled by every task itself, so one failing page never cancels the others
+      invokeAll(tasks);
     }
+  }
+
+  /**
+   * Creates the target file of a file of a manual as a task on the pool.
+   */
+  private static class FileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final File targetDirectory;
+    private final int entryIndex;
+    private final String targetFileName;
+    private final boolean createIndex;
+    private final StrongHelpManual shr;
+    private final String rootPath;
 
-    SHPage page = null;
-    String targetFileName = "";
-    byte[] data = null;
-    data = shr.getData(fileEntry);
+    private FileTask(final File targetDirectory, final int entryIndex, final String targetFileName, final boolean createIndex, final StrongHelpManual shr, final String rootPath) {
+      this.targetDirectory = targetDirectory;
+      this.entryIndex = entryIndex;
+      this.targetFileName = targetFileName;
+      this.createIndex = createIndex;
+      this.shr = shr;
+      this.rootPath = rootPath;
+    }
+
+    @Override
+    protected void compute() {
+      convertFile(this.targetDirectory, this.entryIndex, this.targetFileName, this.createIndex, this.shr, this.rootPath);
+    }
+  }
+
+  private static boolean isRawFiletype(final String filetype) {
+    return "AFF".equals(filetype) || "FF9".equals(filetype) || "FCA".equals(filetype);
+  }
+
+  /**
+   * Returns the name of the target file for the given file or link, or null if there is no target file -
+   * "link" files are output as a copy of the linked file.
+   */
+  private static String getTargetFileName(final SHICompactTree tree, final int entryIndex) {
+    final int sourceIndex = tree.resolve(entryIndex);
+    if (sourceIndex == SHICompactTree.NOT_FOUND) {
+      return null;
+    }
+    final String name = tree.cursor().moveTo(entryIndex).getName().toLowerCase();
     // may be an unsupported filetype
-    final String filetype = fileEntry.getLoadExec().getFiletypeAsString();
-    if ("AFF".equals(filetype) || "FF9".equals(filetype) || "FCA".equals(filetype)) {
-      targetFileName = fileEntry.getName().toLowerCase() + "," + filetype.toLowerCase();
+    final String filetype = tree.cursor().moveTo(sourceIndex).getLoadExec().getFiletypeAsString();
+    if (isRawFiletype(filetype)) {
+      return name + "," + filetype.toLowerCase();
+    }
+    return name + ".html";
+  }
+
+  private static void createFile(final File targetDirectory, final int entryIndex, final String targetFileName, final boolean createIndex, final StrongHelpManual shr, final String rootPath) throws Exception {
+    final SHICompactTree tree = shr.getCompactTree();
+    final ByteBuffer data = shr.getDataView(tree, entryIndex);
+    if (isRawFiletype(tree.cursor().moveTo(tree.resolve(entryIndex)).getLoadExec().getFiletypeAsString())) {
       final File targetRawFile = new File(targetDirectory, targetFileName);
       if (targetRawFile.exists()) {
         System.err.println("Error: duplicate file " + targetRawFile.getName());
         return;
       }
-      try (FileOutputStream fos = new FileOutputStream(targetRawFile)) {
-        fos.write(data);
-        fos.close();
-        verbose("Created Raw source file " + targetRawFile.getAbsolutePath());
-        return;
-      }
+      FileUtils.save(targetRawFile, data);
+      verbose("Created Raw source file " + targetRawFile.getAbsolutePath());
+      return;
     }
-    page = new SHPage(data, shr, shr.getFontManager());
-    targetFileName = fileEntry.getName().toLowerCase();
-    final File targetHtmlFile = new File(targetDirectory, targetFileName + ".html");
+    final SHPage page = new SHPage(data, shr, shr.getFontManager());
+    page.setPageKey(shr.getSHPageKey(entryIndex));
+    if (reproducible) {
+      page.setCreationDate(getManualDate(shr));
+    }
+    final File targetHtmlFile = new File(targetDirectory, targetFileName);
     if (targetHtmlFile.exists()) {
       System.err.println("Error: duplicate file " + targetHtmlFile.getName());
       return;
     }
-    try (FileOutputStream fos = new FileOutputStream(targetHtmlFile)) {
-      fos.write(new String(page.getBodyAsHTML()).getBytes("WINDOWS-1252"));
-      fos.close();
-      verbose("Created file " + targetHtmlFile.getAbsolutePath());
-      // duplicate !root as index.html
-      if ("!root".equals(targetFileName)) {
-        Files.copy(targetHtmlFile.toPath(), new File(targetDirectory, "index.html").toPath());
-        verbose("Duplicated !root file as index.html");
-      }
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(targetHtmlFile), Text.getEncoding()))) {
+      page.writeHTML(writer, externalStyleSheet ? rootPath + STYLE_SHEET_NAME : null);
+    }
+    verbose("Created file " + targetHtmlFile.getAbsolutePath());
+    // duplicate !root as index.html
+    if (createIndex) {
+      Files.copy(targetHtmlFile.toPath(), new File(targetDirectory, INDEX_FILE_NAME).toPath());
+      verbose("Duplicated !root file as index.html");
+    }
+    if (debug) {
+      final File targetSHFile = new File(targetDirectory, tree.cursor().moveTo(entryIndex).getName().toLowerCase() + ".strong");
+      FileUtils.save(targetSHFile, data);
+      verbose("Created SH source file " + targetSHFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Creates the target file of the given file or link - errors are reported and counted, so that the conversion
+   * of all other files goes on.
+   */
+  private static void convertFile(final File targetDirectory, final int entryIndex, final String targetFileName, final boolean createIndex, final StrongHelpManual shr, final String rootPath) {
+    try {
+      createFile(targetDirectory, entryIndex, targetFileName, createIndex, shr, rootPath);
     } catch (final Exception ex) {
-      System.err.println("Error creating file "+targetHtmlFile+" - continuing...stacktrace:");
+      failedFileCount.incrementAndGet();
+      System.err.println("Error creating file " + new File(targetDirectory, targetFileName) + " - continuing...stacktrace:");
       ex.printStackTrace();
     }
-    if (debug) {
-      final File targetSHFile = new File(targetDirectory, targetFileName + ".strong");
-      try (FileOutputStream fos = new FileOutputStream(targetSHFile)) {
-        fos.write(data);
-        fos.close();
-        verbose("Created SH source file " + targetSHFile.getAbsolutePath());
+  }
+
+  /**
+   * Creates the target files of the given directory - errors are reported and counted, so that the conversion
+   * of all other directories goes on.
+   */
+  private static void convertDir(final File targetDirectory, final int dirIndex, final StrongHelpManual shr, final String rootPath, final List<ForkJoinTask<?>> tasks) {
+    try {
+      createDirStructure(targetDirectory, dirIndex, shr, rootPath, tasks);
+    } catch (final Exception ex) {
+      failedFileCount.incrementAndGet();
+      System.err.println("Error creating directory " + targetDirectory + " - continuing...stacktrace:");
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the datestamp of the given manual, or null if it has none.
+   */
+  private static Date getManualDate(final StrongHelpManual shr) {
+    final LoadExec loadExec = shr.getRoot().getLoadExec();
+    return loadExec.isFiletypeDatestamp() ? loadExec.getJavaDateStamp() : null;
+  }
+
+  private static void createManual(final File targetDirectory, final StrongHelpManual shr) throws Exception {
+    if (externalStyleSheet) {
+      final File styleSheetFile = new File(targetDirectory, STYLE_SHEET_NAME);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(styleSheetFile), Text.getEncoding()))) {
+        writer.write(shr.getFontManager().getManualStyles());
       }
+      verbose("Created style sheet " + styleSheetFile.getAbsolutePath());
+    }
+    if (pool == null) {
+      convertDir(targetDirectory, SHICompactTree.ROOT, shr, "", null);
+    } else if (ForkJoinTask.inForkJoinPool()) {
+      // manual is already converted as a task on the pool
+      new DirTask(targetDirectory, SHICompactTree.ROOT, shr, "").invoke();
+    } else {
+      pool.invoke(new DirTask(targetDirectory, SHICompactTree.ROOT, shr, ""));
     }
   }
 
-  private static void createDirStructure(final File targetDirectory, final SHIDir dir, final StrongHelpManual shr) throws Exception {
-    for (final SHIEntry entry : dir.getEntries()) {
-      if (entry instanceof SHIDir) {
+  /**
+   * Creates the target files of the given directory - the target file names are claimed in directory order, so that
+   * the first of several entries mapping to the same target file wins, no matter in which order the files are created.
+   * 
+   * @param rootPath relative path from the target directory to the target root directory of the manual.
+   * @param tasks list to add the tasks creating the files and subdirectories to, null to create them right away.
+   */
+  private static void createDirStructure(final File targetDirectory, final int dirIndex, final StrongHelpManual shr, final String rootPath, final List<ForkJoinTask<?>> tasks) throws Exception {
+    final SHICompactTree tree = shr.getCompactTree();
+    final Set<String> targetFileNames = new HashSet<>();
+    final SHICompactTree.Cursor entry = tree.cursor().moveTo(dirIndex);
+    if (!entry.toFirstChild()) {
+      return;
+    }
+    do {
+      final int entryIndex = entry.getIndex();
+      if (entry.isDirectory()) {
         File newDir = new File(targetDirectory, entry.getName().toLowerCase());
         newDir.mkdir();
         verbose("Created directory " + newDir.getAbsolutePath());
-        createDirStructure(newDir, (SHIDir) entry, shr);
+        if (tasks == null) {
+          convertDir(newDir, entryIndex, shr, rootPath + "../", null);
+        } else {
+          tasks.add(new DirTask(newDir, entryIndex, shr, rootPath + "../"));
+        }
       } else {
-        createFile(targetDirectory, (SHIFile) entry, shr);
+        final String targetFileName = getTargetFileName(tree, entryIndex);
+        if (targetFileName == null) {
+          verbose("Skipping dangling link " + entry.getPathname());
+          continue;
+        }
+        if (!targetFileNames.add(targetFileName)) {
+          System.err.println("Error: duplicate file " + targetFileName);
+          continue;
+        }
+        final boolean createIndex = "!root.html".equals(targetFileName) && targetFileNames.add(INDEX_FILE_NAME);
+        if (tasks == null) {
+          convertFile(targetDirectory, entryIndex, targetFileName, createIndex, shr, rootPath);
+        } else {
+          tasks.add(new FileTask(targetDirectory, entryIndex, targetFileName, createIndex, shr, rootPath));
+        }
       }
+    } while (entry.toNextSibling());
+  }
+
+  private static ConversionResult convertManual(final File manualFile, final File targetDir) {
+    final StrongHelpManual shr;
+    try {
+      shr = new StrongHelpManual(null, manualFile, memoryMapped);
+    } catch (final IOException iox) {
+      System.err.println(iox.getMessage());
+      return ConversionResult.NO_MANUAL;
+    }
+    try {
+      verbose("Starting conversion of StrongHelp manual file " + manualFile.getAbsolutePath());
+      verbose("");
+      final File manualTargetDir = new File(targetDir, StrongHelp.getManualName(manualFile));
+      manualTargetDir.mkdir();
+      createManual(manualTargetDir, shr);
+      return ConversionResult.CONVERTED;
+    } catch (final Exception ex) {
+      // a broken manual must not stop the conversion of all other manuals
+      System.err.println("Error converting manual " + manualFile + " - continuing...stacktrace:");
+      ex.printStackTrace();
+      return ConversionResult.FAILED;
     }
   }
 
+  private static Map<ConversionResult, Integer> convertManuals(final File[] allManuals, final File targetDir) throws InterruptedException, ExecutionException {
+    final Map<ConversionResult, Integer> resultCounts = new EnumMap<>(ConversionResult.class);
+    for (final ConversionResult result : ConversionResult.values()) {
+      resultCounts.put(result, 0);
+    }
+    if (pool == null) {
+      for (final File f : allManuals) {
+        final ConversionResult conversionResult = convertManual(f, targetDir);
+        resultCounts.put(conversionResult, resultCounts.get(conversionResult) + 1);
+      }
+      return resultCounts;
+    }
+    // manuals and their pages share the pool, so that a few big manuals are spread over all threads
+    final List<Future<ConversionResult>> results = new ArrayList<>();
+    for (final File f : allManuals) {
+      results.add(pool.submit(new Callable<ConversionResult>() {
+        @Override
+        public ConversionResult call() throws Exception {
+          return convertManual(f, targetDir);
+        }
+      }));
+    }
+    for (final Future<ConversionResult> result : results) {
+      final ConversionResult conversionResult = result.get();
+      resultCounts.put(conversionResult, resultCounts.get(conversionResult) + 1);
+    }
+    return resultCounts;
+  }
+
   private static void verbose(final String out) {
     if (verbose) {
       System.out.println(out);
@@ -140,6 +381,14 @@ public class StrongHelpConverter {
     // filename that resolves to a dir - converts all manuals inside dir to HTML
     debug = false;
     verbose = false;
+    memoryMapped = false;
+    externalStyleSheet = false;
+    reproducible = false;
+    threads = 1;
+    failedFileCount.set(0);
+    StrongHelpManual.setIndexCacheDirectory(null);
+    // every page is converted, so look them up in a compact tree instead of creating all directory objects
+    StrongHelpManual.setUseCompactTree(true);
     String targetDirName;
     String sourceFileOrDirName;
     File targetDir = null;
@@ -154,6 +403,30 @@ public class StrongHelpConverter {
         if ("-debug".equalsIgnoreCase(arg)) {
           debug = true;
         }
+        if ("-mmap".equalsIgnoreCase(arg)) {
+          memoryMapped = true;
+        }
+        if ("-css".equalsIgnoreCase(arg)) {
+          externalStyleSheet = true;
+        }
+        if ("-reproducible".equalsIgnoreCase(arg)) {
+          reproducible = true;
+        }
+        if ("-threads".equalsIgnoreCase(arg)) {
+          i++;
+          try {
+            threads = Integer.parseInt(args[i]);
+          } catch (final NumberFormatException nfx) {
+            error("Invalid number of threads: " + args[i]);
+          }
+          if (threads < 1) {
+            error("Invalid number of threads: " + args[i]);
+          }
+        }
+        if ("-indexcache".equalsIgnoreCase(arg)) {
+          i++;
+          StrongHelpManual.setIndexCacheDirectory(new File(args[i]));
+        }
         if ("-help".equalsIgnoreCase(arg) || "-?".equalsIgnoreCase(arg)) {
           printUsage();
           System.exit(0);
@@ -194,11 +467,15 @@ public class StrongHelpConverter {
       }
 
       // now convert
+      pool = threads > 1 ? new ForkJoinPool(threads) : null;
       if (sourceFileOrDir.isFile()) {
-        StrongHelpManual shr = new StrongHelpManual(sourceFileOrDir);
+        StrongHelpManual shr = new StrongHelpManual(null, sourceFileOrDir, memoryMapped);
         verbose("Starting conversion of StrongHelp manual file " + sourceFileOrDir.getAbsolutePath());
         verbose("");
-        createDirStructure(targetDir, shr.getRoot(), shr);
+        createManual(targetDir, shr);
+        if (failedFileCount.get() > 0) {
+          out("Converted manual, " + failedFileCount.get() + " files failed.");
+        }
       } else if (sourceFileOrDir.isDirectory()) {
         verbose("Starting conversion of StrongHelp manual files in " + sourceFileOrDir.getAbsolutePath());
         verbose("");
@@ -206,23 +483,21 @@ public class StrongHelpConverter {
         if (allManuals == null || allManuals.length == 0) {
           error("No files found in source directory.");
         }
-        int strongHelpFileCount = 0;
-        for (final File f : allManuals) {
-          try {
-            StrongHelpManual shr = new StrongHelpManual(f);
-            verbose("Starting conversion of StrongHelp manual file " + f.getAbsolutePath());
-            verbose("");
-            strongHelpFileCount++;
-            final File manualTargetDir = new File(targetDir, StrongHelp.getManualName(f));
-            manualTargetDir.mkdir();
-            createDirStructure(manualTargetDir, shr.getRoot(), shr);
-          } catch (final IOException iox) {
-            System.err.println(iox.getMessage());
-          }
-        }
+        final long startTime = System.nanoTime();
+        final Map<ConversionResult, Integer> resultCounts = convertManuals(allManuals, targetDir);
+        final long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        final int strongHelpFileCount = resultCounts.get(ConversionResult.CONVERTED) + resultCounts.get(ConversionResult.FAILED);
         if (strongHelpFileCount == 0) {
           error("No StrongHelp files found in source directory.");
         }
+        out("Converted " + resultCounts.get(ConversionResult.CONVERTED) + " of " + strongHelpFileCount + " manuals, "
+            + resultCounts.get(ConversionResult.FAILED) + " failed, "
+            + resultCounts.get(ConversionResult.NO_MANUAL) + " other files skipped, "
+            + failedFileCount.get() + " files inside manuals failed, in " + elapsedMillis + "ms"
+            + " using " + threads + (threads == 1 ? " thread." : " threads."));
+      }
+      if (pool != null) {
+        pool.shutdown();
       }
       verbose("");
       verbose("Conversion successful!");
@@ -242,13 +517,19 @@ public class StrongHelpConverter {
   }
 
   private static void printUsage() {
-    out("Usage: StrongHelpConverter [-v] [-debug] -target <target directory> <source file or directory>");
+    out("Usage: StrongHelpConverter [-v] [-debug] [-mmap] [-css] [-reproducible] [-threads <n>] [-indexcache <directory>] -target <target directory> <source file or directory>");
     out("");
     out("Converts a single manual or a directory of manuals to HTML format.");
     out("");
     out("Options:");
     out("  -v      verbose console output");
     out("  -debug  also put source StrongHelp files into target dir");
+    out("  -mmap   memory-map manuals instead of loading them to the heap");
+    out("  -css    put styles common to all pages of a manual into a shared " + STYLE_SHEET_NAME);
+    out("  -reproducible  write the datestamp of the manual instead of the current date into the pages,");
+    out("                 so that converting a manual again produces identical files");
+    out("  -threads <n>  convert manuals and render their pages on n threads");
+    out("  -indexcache <dir>  keep directory index of manuals in given directory");
     out("Examples:");
     out("  Convert single manual: StrongHelpConverter -target C:\\Path\\To\\TargetDir C:\\StrongHelp\\Manuals\\BASIC,3d6");
     out("  Convert manual dir:    StrongHelpConverter -target C:\\Path\\To\\TargetDir C:\\StrongHelp\\Manuals");
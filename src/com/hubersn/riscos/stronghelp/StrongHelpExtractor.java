@@ -33,13 +33,14 @@ For more information, please refer to <http://unlicense.org/>
 package com.hubersn.riscos.stronghelp;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.hubersn.riscos.stronghelp.imagefile.SHIDir;
 import com.hubersn.riscos.stronghelp.imagefile.SHIEntry;
 import com.hubersn.riscos.stronghelp.imagefile.SHIFile;
 import com.hubersn.riscos.stronghelp.imagefile.SHILink;
+import com.hubersn.util.io.FileUtils;
 
 /**
  * Extracts a given StrongHelp manual or a directory of StrongHelp manuals into
@@ -56,8 +57,7 @@ public class StrongHelpExtractor {
     }
 
     String targetFileName = "";
-    byte[] data = null;
-    data = shr.getData(fileEntry);
+    final ByteBuffer data = shr.getDataView(fileEntry);
     // may be an unsupported filetype
     final String filetype = fileEntry.getLoadExec().getFiletypeAsString();
     if ("AFF".equals(filetype) || "FF9".equals(filetype) || "FCA".equals(filetype)) {
@@ -67,20 +67,14 @@ public class StrongHelpExtractor {
         System.err.println("Error: duplicate file " + targetRawFile.getName());
         return;
       }
-      try (FileOutputStream fos = new FileOutputStream(targetRawFile)) {
-        fos.write(data);
-        fos.close();
-        verbose("Created Raw source file " + targetRawFile.getAbsolutePath());
-        return;
-      }
+      FileUtils.save(targetRawFile, data);
+      verbose("Created Raw source file " + targetRawFile.getAbsolutePath());
+      return;
     }
     targetFileName = fileEntry.getName()  + "," + filetype.toLowerCase();
     final File targetSHFile = new File(targetDirectory, targetFileName);
-    try (FileOutputStream fos = new FileOutputStream(targetSHFile)) {
-      fos.write(data);
-      fos.close();
-      verbose("Created SH source file " + targetSHFile.getAbsolutePath());
-    }
+    FileUtils.save(targetSHFile, data);
+    verbose("Created SH source file " + targetSHFile.getAbsolutePath());
   }
 
   private static void createDirStructure(final File targetDirectory, final SHIDir dir, final StrongHelpManual shr) throws Exception {
@@ -36,8 +36,13 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -46,10 +51,14 @@ import javax.swing.JOptionPane;
 import com.hubersn.riscos.stronghelp.content.SHFontConfig;
 import com.hubersn.riscos.stronghelp.content.SHFontManager;
 import com.hubersn.riscos.stronghelp.content.SHPage;
+import com.hubersn.riscos.stronghelp.content.SHPageCache;
 import com.hubersn.riscos.stronghelp.content.SHPageProviderIF;
+import com.hubersn.riscos.stronghelp.imagefile.SHICompactTree;
 import com.hubersn.riscos.stronghelp.imagefile.SHIDir;
+import com.hubersn.riscos.stronghelp.imagefile.SHIDirLoaderIF;
 import com.hubersn.riscos.stronghelp.imagefile.SHIEntry;
 import com.hubersn.riscos.stronghelp.imagefile.SHIFile;
+import com.hubersn.riscos.stronghelp.imagefile.SHIIndexCache;
 import com.hubersn.riscos.stronghelp.imagefile.SHILink;
 import com.hubersn.riscos.stronghelp.view.PageFrame;
 import com.hubersn.riscos.util.fs.LoadExec;
@@ -58,22 +67,90 @@ import com.hubersn.util.memory.Memory;
 
 /**
  * Encapsulation for one StrongHelp manual - parses the image fs content and
- * allows opening the !Root of the manual.
+ * allows opening the !Root of the manual. Directories are parsed on first
+ * access only.
  */
-public class StrongHelpManual implements SHPageProviderIF {
+public class StrongHelpManual implements SHPageProviderIF, SHIDirLoaderIF {
 
   private static final boolean showInSameFrame = false;
 
+  private static final String HELP_ID = "HELP";
+
+  private static final String DIR_ID = "DIR$";
+
+  private static final String DATA_ID = "DATA";
+
+  private static final String LINK_ID = "LINK";
+
+  private static final int HELP_MARKER = Memory.marker(HELP_ID);
+
+  private static final int DIR_MARKER = Memory.marker(DIR_ID);
+
+  private static final int DATA_MARKER = Memory.marker(DATA_ID);
+
+  private static final int FREE_MARKER = Memory.marker("FREE");
+
+  /** Size of the image header - marker, header size, version, free block offset, root dir offset, load/exec. */
+  private static final int HEADER_SIZE = 32;
+
+  /** Maximum number of decoded page sources kept for #include - usually only a few shared headers are included. */
+  private static final int MAX_PAGE_SOURCES = 64;
+
+  private static SHIIndexCache indexCache;
+
+  private static boolean useCompactTree;
+
   private Memory strongHelpData;
 
   private SHIDir root;
 
+  /** Compact directory tree backing this manual, null if directories are read from the image on first access. */
+  private SHICompactTree compactTree;
+
+  /** Entry objects created from the compact tree on demand, by entry index. */
+  private SHIEntry[] compactTreeEntries;
+
   private PageFrame mainView;
 
   private StrongHelp mainHelpApplication;
 
   private SHFontManager fontManager;
 
+  private final SHPageCache pageCache = new SHPageCache();
+
+  /** Source text of the most recently included pages, decoded only once. */
+  private final Map<SHIFile, String> pageSources = Collections.synchronizedMap(new LinkedHashMap<SHIFile, String>(16, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<SHIFile, String> eldest) {
+      return size() > MAX_PAGE_SOURCES;
+    }
+  });
+
+  /**
+   * Sets the directory for the persistent directory index of all manuals opened afterwards - with
+   * a valid index, the directory structure of a manual is not parsed again. Manuals are then backed by
+   * the compact tree from the index. Null disables the index.
+   * 
+   * @param cacheDirectory index cache directory, might be null.
+   */
+  public static void setIndexCacheDirectory(final File cacheDirectory) {
+    indexCache = cacheDirectory == null ? null : new SHIIndexCache(cacheDirectory);
+  }
+
+  /**
+   * Sets if manuals opened afterwards are backed by a compact tree of their complete directory
+   * structure - pages are then looked up in the compact tree, and entry objects are only created
+   * for the entries that are actually requested.
+   * 
+   * @param compact use compact tree as backing?
+   */
+  public static void setUseCompactTree(final boolean compact) {
+    useCompactTree = compact;
+  }
+
   /**
    * Creates a new instance of StrongHelpReader, representing the given StrongHelp image file.
    * 
@@ -92,10 +169,28 @@ public class StrongHelpManual implements SHPageProviderIF {
    * @throws IOException on errors reading the file.
    */
   public StrongHelpManual(final StrongHelp mainHelpApplication, final File sourceFile) throws IOException {
+    this(mainHelpApplication, sourceFile, false);
+  }
+
+  /**
+   * Creates a new instance of StrongHelpReader, representing the given StrongHelp image file.
+   * If memory-mapped, the image file is not copied to the heap, but accessed via the OS page cache -
+   * useful if a lot of manuals are kept open. Zipped manuals are always loaded to the heap.
+   * 
+   * @param mainHelpApplication reference to parent application, might be null.
+   * @param sourceFile source file for StrongHelp manual image.
+   * @param memoryMapped map the file read-only into memory instead of loading it.
+   * @throws IOException on errors reading the file.
+   */
+  public StrongHelpManual(final StrongHelp mainHelpApplication, final File sourceFile, final boolean memoryMapped) throws IOException {
     this.mainHelpApplication = mainHelpApplication;
-    this.strongHelpData = new Memory(FileUtils.load(sourceFile));
+    if (memoryMapped) {
+      this.strongHelpData = new Memory(FileUtils.map(sourceFile));
+    } else {
+      this.strongHelpData = new Memory(FileUtils.load(sourceFile));
+    }
     final String sourceFileName = sourceFile.getAbsolutePath();
-    if (!"HELP".equals(this.strongHelpData.getText(0, 4))) {
+    if (!this.strongHelpData.hasMarker(0, HELP_MARKER)) {
       // we might have a ZIP file instead
       if ("PK".equals(this.strongHelpData.getText(0, 2))) {
         this.strongHelpData = null;
@@ -124,12 +219,104 @@ public class StrongHelpManual implements SHPageProviderIF {
     StrongHelp.dv("Offset to first free block", gw(12));
     StrongHelp.dv("Offset to root dir", gw(16));
     LoadExec loadExec = new LoadExec(guw(20), guw(24));
-    this.root = new SHIDir("HELP", "$", gw(16), loadExec);
-    readDir(this.root);
+    // only the root dir entry is created here, its content is read on first access
+    this.root = new SHIDir(HELP_ID, "$", gw(16), loadExec, this);
+    final SHIIndexCache cache = indexCache;
+    if (cache != null) {
+      useIndexCache(cache, sourceFile);
+    } else if (useCompactTree) {
+      setCompactTree(getCompactTree());
+    }
     StrongHelp.dumpDirStructure(this.root, 0);
     initFontManager();
   }
 
+  private void useIndexCache(final SHIIndexCache cache, final File sourceFile) {
+    final long contentHash = getIndexHash();
+    SHICompactTree tree = cache.read(sourceFile, contentHash);
+    if (tree != null) {
+      StrongHelp.d("Using directory index from cache for " + sourceFile.getAbsolutePath());
+    } else {
+      // scanning the directory blocks into a compact tree creates no entry objects
+      tree = getCompactTree();
+      try {
+        cache.write(sourceFile, contentHash, tree);
+      } catch (final IOException iox) {
+        System.err.println("Cannot write directory index for " + sourceFile.getAbsolutePath() + ": " + iox.getMessage());
+      }
+    }
+    // directories are created from the tree on first access
+    setCompactTree(tree);
+  }
+
+  /**
+   * Returns a cheap hash of the image for validating the directory index - a CRC32 of the image header
+   * and the used part of the root directory block, which change whenever entries are added, removed
+   * or moved, even if size and modification time of the image stay the same.
+   */
+  private long getIndexHash() {
+    final CRC32 crc = new CRC32();
+    final int size = this.strongHelpData.getSize();
+    final int headerSize = Math.min(HEADER_SIZE, size);
+    crc.update(this.strongHelpData.getDataSlice(0, headerSize), 0, headerSize);
+    final int rootOffset = gw(16);
+    if (rootOffset >= 0 && rootOffset <= size - 12) {
+      final int rootSize = Math.max(0, Math.min(gw(rootOffset + 8), size - rootOffset));
+      crc.update(this.strongHelpData.getDataSlice(rootOffset, rootSize), 0, rootSize);
+    }
+    return crc.getValue();
+  }
+
+  private void setCompactTree(final SHICompactTree tree) {
+    this.compactTree = tree;
+    this.compactTreeEntries = new SHIEntry[tree.getEntryCount()];
+    this.root = new SHIDir(HELP_ID, this.root.getName(), this.root.getOffset(), this.root.getLoadExec(), new CompactTreeDirLoader(SHICompactTree.ROOT));
+    this.compactTreeEntries[SHICompactTree.ROOT] = this.root;
+  }
+
+  /**
+   * Returns the entry object for the given entry index of the compact tree, created on first access -
+   * it is attached to its parent directory without reading that directory.
+   */
+  private synchronized SHIEntry getCompactTreeEntry(final int entryIndex) {
+    SHIEntry entry = this.compactTreeEntries[entryIndex];
+    if (entry == null) {
+      final SHICompactTree.Cursor cursor = this.compactTree.cursor().moveTo(entryIndex);
+      if (cursor.isDirectory()) {
+        entry = new SHIDir(DIR_ID, cursor.getName(), cursor.getOffset(), cursor.getLoadExec(), new CompactTreeDirLoader(entryIndex));
+      } else if (cursor.isFile()) {
+        entry = new SHIFile(DATA_ID, cursor.getName(), cursor.getOffset(), cursor.getLoadExec(), cursor.getLength());
+      } else {
+        entry = new SHILink(LINK_ID, cursor.getStoredName(), -1, cursor.getLoadExec());
+      }
+      this.compactTreeEntries[entryIndex] = entry;
+      cursor.toParent();
+      entry.setParent(getCompactTreeEntry(cursor.getIndex()));
+    }
+    return entry;
+  }
+
+  /**
+   * Fills a directory from the compact tree, reusing the entry objects already created.
+   */
+  private class CompactTreeDirLoader implements SHIDirLoaderIF {
+    private final int dirIndex;
+
+    private CompactTreeDirLoader(final int dirIndex) {
+      this.dirIndex = dirIndex;
+    }
+
+    @Override
+    public void loadDir(final SHIDir dir) {
+      final SHICompactTree.Cursor cursor = StrongHelpManual.this.compactTree.cursor().moveTo(this.dirIndex);
+      if (cursor.toFirstChild()) {
+        do {
+          dir.add(getCompactTreeEntry(cursor.getIndex()));
+        } while (cursor.toNextSibling());
+      }
+    }
+  }
+
   /**
    * Returns the root directory of the represented StrongHelp image file.
    * 
@@ -158,11 +345,38 @@ public class StrongHelpManual implements SHPageProviderIF {
     return file.getData(this.strongHelpData);
   }
 
+  /**
+   * Returns a read-only view on the binary data from the given file in the context of this StrongHelp image - no data is copied.
+   * 
+   * @param file file from inside StrongHelp image.
+   * @return read-only view on binary data.
+   */
+  public ByteBuffer getDataView(final SHIFile file) {
+    return file.getDataView(this.strongHelpData);
+  }
+
+  /**
+   * Returns a read-only view on the binary data of the given entry of the compact tree of this StrongHelp image - links are resolved.
+   * 
+   * @param tree compact tree of this StrongHelp image.
+   * @param entryIndex entry index of file or link.
+   * @return read-only view on binary data.
+   */
+  public ByteBuffer getDataView(final SHICompactTree tree, final int entryIndex) {
+    return tree.getDataView(this.strongHelpData, entryIndex);
+  }
+
   private void initFontManager() {
     this.fontManager = new SHFontManager();
     this.fontManager.setStrongHelpConfig(StrongHelp.getGlobalFontConfig());
     // search for local !Configure
-    SHIEntry entry = this.root.getEntry("!Configure");
+    SHIEntry entry;
+    if (this.compactTree == null) {
+      entry = this.root.getDirectEntry("!Configure");
+    } else {
+      final int entryIndex = this.compactTree.findChild(SHICompactTree.ROOT, "!Configure");
+      entry = entryIndex == SHICompactTree.NOT_FOUND ? null : getCompactTreeEntry(entryIndex);
+    }
     if (entry instanceof SHIFile) {
       SHFontConfig manualFontConfig = new SHFontConfig();
       manualFontConfig.readConfig(new ByteArrayInputStream(getData((SHIFile) entry)));
@@ -207,7 +421,7 @@ public class StrongHelpManual implements SHPageProviderIF {
           // there might be a specific "notfound" page for such a case
           final String specialErrorPageName = "notfound_" + possibleError;
           // check if specific error page exists
-          if (getSHPage(specialErrorPageName) == null) {
+          if (findPageFile(specialErrorPageName) == null) {
             // StrongHelp says "Manual is not installed" in such cases!
             JOptionPane.showMessageDialog(this.mainView.getFrame(),
                                           "Manual >" + possibleError + "< is not installed.",
@@ -241,13 +455,64 @@ public class StrongHelpManual implements SHPageProviderIF {
 
   @Override
   public SHPage getSHPage(final String pageName) {
+    final SHIFile data = findPageFile(pageName);
+    if (data == null) {
+      return null;
+    }
+    SHPage page = this.pageCache.get(data);
+    if (page == null) {
+      page = new SHPage(data.getDataView(this.strongHelpData), this, this.fontManager);
+      page.setPageKey(data);
+      // converted to HTML only when shown, the page then charges the cache with the size of its HTML
+      this.pageCache.put(data, page);
+    }
+    return page;
+  }
+
+  @Override
+  public String getSHPageSource(final String pageName) {
+    final SHIFile data = findPageFile(pageName);
+    if (data == null) {
+      return null;
+    }
+    // mostly used for #include of the same few pages, so decode only once
+    String sourceText = this.pageSources.get(data);
+    if (sourceText == null) {
+      sourceText = SHPage.getPageDataAsText(data.getDataView(this.strongHelpData));
+      this.pageSources.put(data, sourceText);
+    }
+    return sourceText;
+  }
+
+  @Override
+  public Object getSHPageKey(final String pageName) {
+    // links and directories are resolved, so the page data itself is the key
+    return findPageFile(pageName);
+  }
+
+  /**
+   * Returns the key identifying the page data of the given entry of the compact tree backing this
+   * manual, as returned by getSHPageKey - links are resolved.
+   * 
+   * @param entryIndex entry index of file or link.
+   * @return key of page data, or null if not backed by a compact tree or link target not found.
+   */
+  public Object getSHPageKey(final int entryIndex) {
+    if (this.compactTree == null) {
+      return null;
+    }
+    final int fileIndex = this.compactTree.resolve(entryIndex);
+    return fileIndex == SHICompactTree.NOT_FOUND ? null : getCompactTreeEntry(fileIndex);
+  }
+
+  private SHIFile findPageFile(final String pageName) {
+    if (this.compactTree != null) {
+      return findPageFileInCompactTree(pageName);
+    }
     // might be a dir or a file - if dir, use !Root
     //System.out.println("Looking for a page called >"+pageName+"<");
+    // the root directory also does the deep search via its global index - it might be a prefixed/postfixed pageName
     SHIEntry entry = this.root.getEntry(pageName);
-    if (entry == null) {
-      // now do a deep search - it might be a prefixed/postfixed pageName
-      entry = this.root.getGlobalEntry(pageName);
-    }
     if (entry == null) {
       // not found, just trace, let caller handle
       StrongHelp.d("Requested page not found: >" + pageName + "<");
@@ -259,18 +524,45 @@ public class StrongHelpManual implements SHPageProviderIF {
     } else {
       data = (SHIFile)entry;
     }
+    // all links to a page share the page of the link target
+    if (data instanceof SHILink && ((SHILink) data).getTarget() != null) {
+      data = ((SHILink) data).getTarget();
+    }
     // search result might still fail
-    if (data == null) {
+    return data;
+  }
+
+  private SHIFile findPageFileInCompactTree(final String pageName) {
+    // same rules as for the directory objects
+    int entryIndex = this.compactTree.find(pageName);
+    if (entryIndex == SHICompactTree.NOT_FOUND) {
+      // not found, just trace, let caller handle
+      StrongHelp.d("Requested page not found: >" + pageName + "<");
       return null;
     }
-    SHPage page = new SHPage(data.getData(this.strongHelpData), this, this.fontManager);
-    return page;
+    final SHICompactTree.Cursor cursor = this.compactTree.cursor();
+    if (cursor.moveTo(entryIndex).isDirectory()) {
+      entryIndex = this.compactTree.find(entryIndex, "!Root");
+      if (entryIndex == SHICompactTree.NOT_FOUND || cursor.moveTo(entryIndex).isDirectory()) {
+        return null;
+      }
+    }
+    // all links to a page share the page of the link target
+    final int fileIndex = this.compactTree.resolve(entryIndex);
+    return (SHIFile) getCompactTreeEntry(fileIndex == SHICompactTree.NOT_FOUND ? entryIndex : fileIndex);
+  }
+
+  /**
+   * Returns the cache of pages of this manual, e.g. to query cache statistics.
+   * 
+   * @return page cache.
+   */
+  public SHPageCache getPageCache() {
+    return this.pageCache;
   }
 
   private PageFrame show(final String filename) {
-    SHIFile fileToShow = (SHIFile) this.root.getEntry(filename);
-    SHPage pageToShow = new SHPage(fileToShow.getData(this.strongHelpData), this, this.fontManager);
-    return show(pageToShow);
+    return show(getSHPage(filename));
   }
 
   private PageFrame show(final SHPage page) {
@@ -280,59 +572,137 @@ public class StrongHelpManual implements SHPageProviderIF {
     return pageFrame;
   }
 
+  @Override
+  public void loadDir(final SHIDir dir) {
+    try {
+      readDir(dir);
+    } catch (final IOException iox) {
+      System.err.println("Fatal data access error happened, continuing...");
+      iox.printStackTrace();
+    }
+  }
+
   private void readDir(final SHIDir dir) throws IOException {
     try {
-      String dirName = dir.getName();
-      int offset = dir.getOffset();
-      if (!"DIR$".equals(this.strongHelpData.getText(offset + 0, 4))) {
-        throw new IOException("Not a StrongHelpDir at offset" + offset);
-      }
-      StrongHelp.dv("Parsing dir >" + dirName + "< from offset ", offset);
-      // "size of dir" is only relevant for write info, for read the "size of dir used" is important
-      final int size = gw(offset + 4);
-      StrongHelp.dv("Size of Dir: ", size);
-      final int sizeUsed = gw(offset + 8);
-      StrongHelp.dv("Size of Dir used: ", sizeUsed);
-      // skip dir header
-      int entryStart = offset + 12;
-      while (entryStart < offset + sizeUsed - 20) {
-        LoadExec loadExec = new LoadExec(guw(entryStart + 4), guw(entryStart + 8));
-        int objectOffset = gw(entryStart + 0);
-        System.out.println("is legal object offset: "+objectOffset+": "+(objectOffset < this.strongHelpData.getData().length));
-        int objectSize = gw(entryStart + 12);
-        String entryName = gs(entryStart + 24);
-        // calculate start of next entry
-        entryStart += Memory.align(24 + entryName.length() + 1);
-        // may be a special "link" file of size 0
-        if (objectSize > 0) {
-          String marker = this.strongHelpData.getText(objectOffset + 0, 4);
-          SHIEntry entry;
-          if ("DIR$".equals(marker)) {
-            entry = new SHIDir(marker, entryName, objectOffset, loadExec);
-            // recurse
-            readDir((SHIDir) entry);
-          } else if ("DATA".equals(marker)) {
-            int dataObjectSize = this.strongHelpData.getWord(objectOffset + 4) - 8;
-            entry = new SHIFile(marker, entryName, objectOffset, loadExec, dataObjectSize);
-          } else if ("FREE".equals(marker)) {
-            // FREE blocks are only for internal ImageFS processing, we just ignore them
-            StrongHelp.d("FREE block found, ignoring.");
-            continue;
+      scanDir(dir.getName(), dir.getOffset(), new DirEntryHandlerIF() {
+        @Override
+        public void foundEntry(final String id, final String entryName, final int objectOffset, final int length, final long loadAddr, final long execAddr) {
+          final LoadExec loadExec = new LoadExec(loadAddr, execAddr);
+          if (DIR_ID.equals(id)) {
+            // content is read on first access
+            dir.add(new SHIDir(DIR_ID, entryName, objectOffset, loadExec, StrongHelpManual.this));
+          } else if (DATA_ID.equals(id)) {
+            dir.add(new SHIFile(DATA_ID, entryName, objectOffset, loadExec, length));
           } else {
-            System.err.println("Unknown entry encountered: marker=" + marker + ", name=" + entryName);
-            continue;
+            dir.add(new SHILink(LINK_ID, entryName, -1, loadExec));
           }
-          dir.add(entry);
-          StrongHelp.d("Entry found: ID=" + entry.getId() + ", name=" + entryName + " @dataoffset " + gw(entryStart) + ", next entry possibly from " + entryStart);
-        } else {
-          dir.add(new SHILink("LINK", entryName, -1, loadExec));
-          StrongHelp.d("Link Entry found: " + entryName);
-        } // end if
-      } // end while
+        }
+      });
+    } catch (final Exception ex) {
+      System.err.println("Fatal data access error happened, continuing...");
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the complete directory structure of the represented StrongHelp image file as a
+   * compact tree - if the manual is not backed by a compact tree, it is read directly from the image,
+   * independent of the (lazily read) directory objects.
+   * 
+   * @return compact directory tree.
+   */
+  public SHICompactTree getCompactTree() {
+    if (this.compactTree != null) {
+      return this.compactTree;
+    }
+    final SHICompactTree tree = new SHICompactTree(this.root.getName(), this.root.getOffset(), this.root.getLoadExec());
+    fillCompactTree(tree, SHICompactTree.ROOT, this.root.getName(), this.root.getOffset());
+    tree.trimToSize();
+    return tree;
+  }
+
+  private void fillCompactTree(final SHICompactTree tree, final int dirIndex, final String dirName, final int dirOffset) {
+    final int firstChild = tree.getEntryCount();
+    try {
+      scanDir(dirName, dirOffset, new DirEntryHandlerIF() {
+        @Override
+        public void foundEntry(final String id, final String entryName, final int objectOffset, final int length, final long loadAddr, final long execAddr) {
+          if (DIR_ID.equals(id)) {
+            tree.addDir(dirIndex, entryName, objectOffset, loadAddr, execAddr);
+          } else if (DATA_ID.equals(id)) {
+            tree.addFile(dirIndex, entryName, objectOffset, length, loadAddr, execAddr);
+          } else {
+            tree.addLink(dirIndex, entryName, loadAddr, execAddr);
+          }
+        }
+      });
     } catch (final Exception ex) {
       System.err.println("Fatal data access error happened, continuing...");
       ex.printStackTrace();
     }
+    // entries of a directory are added one after the other, subdirectories follow afterwards
+    final int endChild = tree.getEntryCount();
+    final SHICompactTree.Cursor cursor = tree.cursor();
+    for (int i = firstChild; i < endChild; i++) {
+      if (cursor.moveTo(i).isDirectory()) {
+        fillCompactTree(tree, i, cursor.getName(), cursor.getOffset());
+      }
+    }
+  }
+
+  /**
+   * Receives the entries found while scanning one directory block.
+   */
+  private interface DirEntryHandlerIF {
+    void foundEntry(String id, String entryName, int objectOffset, int length, long loadAddr, long execAddr);
+  }
+
+  private void scanDir(final String dirName, final int offset, final DirEntryHandlerIF handler) throws IOException {
+    if (!this.strongHelpData.hasMarker(offset + 0, DIR_MARKER)) {
+      throw new IOException("Not a StrongHelpDir at offset" + offset);
+    }
+    StrongHelp.dv("Parsing dir >" + dirName + "< from offset ", offset);
+    // "size of dir" is only relevant for write info, for read the "size of dir used" is important
+    final int size = gw(offset + 4);
+    StrongHelp.dv("Size of Dir: ", size);
+    final int sizeUsed = gw(offset + 8);
+    StrongHelp.dv("Size of Dir used: ", sizeUsed);
+    // skip dir header
+    int entryStart = offset + 12;
+    while (entryStart < offset + sizeUsed - 20) {
+      final long loadAddr = guw(entryStart + 4);
+      final long execAddr = guw(entryStart + 8);
+      int objectOffset = gw(entryStart + 0);
+      StrongHelp.d("is legal object offset: "+objectOffset+": "+(objectOffset < this.strongHelpData.getSize()));
+      int objectSize = gw(entryStart + 12);
+      String entryName = gs(entryStart + 24);
+      // calculate start of next entry
+      entryStart += Memory.align(24 + entryName.length() + 1);
+      // may be a special "link" file of size 0
+      if (objectSize > 0) {
+        final int marker = gw(objectOffset + 0);
+        final String id;
+        int length = 0;
+        if (marker == DIR_MARKER) {
+          id = DIR_ID;
+        } else if (marker == DATA_MARKER) {
+          id = DATA_ID;
+          length = this.strongHelpData.getWord(objectOffset + 4) - 8;
+        } else if (marker == FREE_MARKER) {
+          // FREE blocks are only for internal ImageFS processing, we just ignore them
+          StrongHelp.d("FREE block found, ignoring.");
+          continue;
+        } else {
+          System.err.println("Unknown entry encountered: marker=" + this.strongHelpData.getText(objectOffset + 0, 4) + ", name=" + entryName);
+          continue;
+        }
+        handler.foundEntry(id, entryName, objectOffset, length, loadAddr, execAddr);
+        StrongHelp.d("Entry found: ID=" + id + ", name=" + entryName + " @dataoffset " + gw(entryStart) + ", next entry possibly from " + entryStart);
+      } else {
+        handler.foundEntry(LINK_ID, entryName, -1, 0, loadAddr, execAddr);
+        StrongHelp.d("Link Entry found: " + entryName);
+      } // end if
+    } // end while
   }
 
   private int gw(final int offset) {
@@ -49,6 +49,9 @@ public class SHFontManager {
 
   private SHFontConfig manualConfig;
 
+  /** Merged styles of global and manual layer, created on first use. */
+  private volatile String manualStyles;
+
   /**
    * Creates a new instance of SHFontManager.
    */
@@ -66,6 +69,7 @@ public class SHFontManager {
    */
   public void setStrongHelpConfig(final SHFontConfig strongHelpConfig) {
     this.strongHelpConfig = strongHelpConfig;
+    this.manualStyles = null;
   }
 
   /**
@@ -75,6 +79,7 @@ public class SHFontManager {
    */
   public void setManualConfig(final SHFontConfig manualConfig) {
     this.manualConfig = manualConfig;
+    this.manualStyles = null;
   }
 
   /**
@@ -85,12 +90,42 @@ public class SHFontManager {
    * @return HTML CSS representation of all active styles.
    */
   public String getActiveStyles(final SHFontConfig pageConfig) {
-    // merge together all maps to a new map, the create the style representation string
-    Map<String, String> activeStylesMap = new HashMap<>();
-    activeStylesMap.putAll(this.strongHelpConfig.getStylesMap());
-    activeStylesMap.putAll(this.manualConfig.getStylesMap());
-    activeStylesMap.putAll(pageConfig.getStylesMap());
-    return SHFontConfig.getStyles(activeStylesMap);
+    final String pageStyles = getPageStyles(pageConfig);
+    if (pageStyles.isEmpty()) {
+      return getManualStyles();
+    }
+    return getManualStyles() + pageStyles;
+  }
+
+  /**
+   * Returns an HTML CSS style representation of the global and the manual-specific
+   * layer - identical for all pages of a manual, so it is only created once and
+   * can be shared, e.g. as external style sheet.
+   * 
+   * @return HTML CSS representation of global and manual-specific styles.
+   */
+  public String getManualStyles() {
+    String styles = this.manualStyles;
+    if (styles == null) {
+      // merge together both maps to a new map, then create the style representation string
+      final Map<String, String> stylesMap = new HashMap<>();
+      stylesMap.putAll(this.strongHelpConfig.getStylesMap());
+      stylesMap.putAll(this.manualConfig.getStylesMap());
+      styles = SHFontConfig.getStyles(stylesMap);
+      this.manualStyles = styles;
+    }
+    return styles;
+  }
+
+  /**
+   * Returns an HTML CSS style representation of the given page-specific font config
+   * only - to be used after the manual styles, so that it overrides them.
+   * 
+   * @param pageConfig page-specific font/style config
+   * @return HTML CSS representation of page-specific styles, empty if there are none.
+   */
+  public String getPageStyles(final SHFontConfig pageConfig) {
+    return SHFontConfig.getStyles(pageConfig.getStylesMap());
   }
 
 }
@@ -0,0 +1,266 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.content;
+
+/**
+ * Lexer for StrongHelp page text - scans the text once and produces a compact token stream of text runs,
+ * commands, links, style runs, tabs and escapes. All markup rules of StrongHelp text are decided here, consumers
+ * like SHtoHTML, plain text extraction or link checking only interpret the tokens.
+ * <p>
+ * Whether a character starts markup depends on the character handled before - which is not always the preceding
+ * character of the source, e.g. after a link it is the '&lt;' starting the link, so that a link directly following
+ * another link is not recognised, just like StrongHelp does it.
+ */
+public class SHLexer {
+
+  /**
+   * Remembers the last search for a character, so that searches from increasing offsets in the same
+   * source only scan every part of the source once, even if the character is missing.
+   */
+  private static class NextOccurrence {
+    private final char ch;
+    private int from = -1;
+    private int result;
+
+    private NextOccurrence(final char ch) {
+      this.ch = ch;
+    }
+
+    private int find(final CharSequence source, final int fromOffset) {
+      // the remembered result is valid for all offsets between the remembered start offset and the result
+      if (this.from < 0 || fromOffset < this.from || (this.result >= 0 && fromOffset > this.result)) {
+        this.from = fromOffset;
+        this.result = indexOf(source, this.ch, fromOffset);
+      }
+      return this.result;
+    }
+  }
+
+  private final CharSequence source;
+
+  /** Fragments like link texts and #table cells only know links, inline commands and escapes. */
+  private final boolean fragment;
+
+  private final SHTokenStream tokens;
+
+  /** Next end of link, shared by all links of the source. */
+  private final NextOccurrence nextLinkEnd = new NextOccurrence('>');
+
+  /** Next end of inline command, shared by all inline commands of the source. */
+  private final NextOccurrence nextInlineCommandEnd = new NextOccurrence('}');
+
+  private SHLexer(final CharSequence source, final boolean fragment) {
+    this.source = source;
+    this.fragment = fragment;
+    this.tokens = new SHTokenStream(source);
+  }
+
+  /**
+   * Returns the token stream for the given StrongHelp page text (i.e. without the title line).
+   * 
+   * @param source StrongHelp page text.
+   * @return token stream.
+   */
+  public static SHTokenStream lex(final CharSequence source) {
+    return new SHLexer(source, false).scan(0, (char) 0);
+  }
+
+  /**
+   * Returns the token stream for the given StrongHelp page text from the given offset on, which must be the
+   * start of a line - e.g. to continue behind lines that are consumed as a whole.
+   * 
+   * @param source StrongHelp page text.
+   * @param offset offset of start of line to scan from.
+   * @return token stream, with offsets relative to the whole page text.
+   */
+  public static SHTokenStream lex(final CharSequence source, final int offset) {
+    return new SHLexer(source, false).scan(offset, offset == 0 ? (char) 0 : (char) 10);
+  }
+
+  /**
+   * Returns the token stream for the given fragment of StrongHelp text like a link text or a #table cell, which
+   * only knows links, inline commands and escapes.
+   * 
+   * @param source fragment of StrongHelp text.
+   * @return token stream.
+   */
+  public static SHTokenStream lexFragment(final CharSequence source) {
+    return new SHLexer(source, true).scan(0, (char) 0);
+  }
+
+  private SHTokenStream scan(final int offset, final char initialPrevC) {
+    final int length = this.source.length();
+    int textStart = offset;
+    int offs = offset;
+    char prevC = initialPrevC;
+    while (offs < length) {
+      final char c = this.source.charAt(offs);
+      int tokenType = -1;
+      int tokenEnd = offs + 1;
+      // character that counts as handled before the next one
+      char nextPrevC = c;
+      switch (c) {
+        case 9:
+          if (!this.fragment) {
+            tokenType = SHTokenStream.TAB;
+          }
+          break;
+        case 10:
+          if (!this.fragment) {
+            tokenType = SHTokenStream.NEWLINE;
+          }
+          break;
+        case '#':
+          // commands only valid on start of line, the line feed belongs to the command
+          if (!this.fragment && (prevC == 0 || prevC == 10)) {
+            final int endOfLine = indexOf(this.source, (char) 10, offs + 1);
+            final int lineEnd = endOfLine < 0 ? length : endOfLine;
+            tokenType = lineEnd > offs + 1 && this.source.charAt(offs + 1) == ' ' ? SHTokenStream.COMMENT : SHTokenStream.COMMAND;
+            tokenEnd = endOfLine < 0 ? length : endOfLine + 1;
+            nextPrevC = this.source.charAt(tokenEnd - 1);
+          }
+          break;
+        case '<':
+          // certain characters preceding or following the link-start-character actually mean "go ahead, no link"
+          final char nextC = offs + 1 < length ? this.source.charAt(offs + 1) : 0;
+          if (prevC != '\\' && prevC != '<' && nextC != '=' && nextC != '-' && nextC != '<') {
+            final int linkEnd = findLinkEnd(offs + 1);
+            if (linkEnd >= 0) {
+              tokenType = SHTokenStream.LINK;
+              tokenEnd = linkEnd + 1;
+            }
+          }
+          break;
+        case '{':
+          final int inlineCommandEnd = this.nextInlineCommandEnd.find(this.source, offs + 1);
+          if (inlineCommandEnd >= 0) {
+            tokenType = SHTokenStream.INLINE_COMMAND;
+            tokenEnd = inlineCommandEnd + 1;
+          }
+          break;
+        case '*':
+        case '/':
+        case '_':
+          // only valid if preceded by whitespace
+          if (!this.fragment && (prevC == ' ' || prevC == 10)) {
+            final int styleRunEnd = findSimpleFontStyleRunEnd(offs + 1, c);
+            if (styleRunEnd >= 0) {
+              tokenType = SHTokenStream.STYLE;
+              tokenEnd = styleRunEnd + 1;
+            }
+          }
+          break;
+        case '\\':
+          tokenType = SHTokenStream.ESCAPE;
+          if (offs + 1 < length) {
+            final char escapedC = this.source.charAt(offs + 1);
+            tokenEnd = offs + 2;
+            nextPrevC = escapedC;
+            if (!this.fragment) {
+              if (escapedC == 't') {
+                // special semantics: \t is defined as being a TAB
+                tokenType = SHTokenStream.TAB;
+              } else if (escapedC == '<') {
+                // to handle \<<link> correctly, an escaped '<' is never checked as preceding character
+                nextPrevC = '_';
+              }
+            }
+          }
+          break;
+        default:
+          break;
+      }
+      if (tokenType >= 0) {
+        if (textStart < offs) {
+          this.tokens.add(SHTokenStream.TEXT, textStart, offs);
+        }
+        this.tokens.add(tokenType, offs, tokenEnd);
+        textStart = tokenEnd;
+      }
+      prevC = nextPrevC;
+      offs = tokenEnd;
+    }
+    if (textStart < length) {
+      this.tokens.add(SHTokenStream.TEXT, textStart, length);
+    }
+    return this.tokens;
+  }
+
+  /**
+   * Returns the offset of the '&gt;' ending the link starting at the given offset, or -1 if the link is not closed.
+   */
+  private int findLinkEnd(final int offs) {
+    // links are of form <Text=>Link Target> or <DirectLink>, so the first '>' either ends the link or
+    // is part of the "=>" of the complex form
+    final int possibleEndLink = this.nextLinkEnd.find(this.source, offs);
+    if (possibleEndLink > offs && this.source.charAt(possibleEndLink - 1) == '=') {
+      return this.nextLinkEnd.find(this.source, possibleEndLink + 1);
+    }
+    return possibleEndLink;
+  }
+
+  /**
+   * Returns the offset of the marker ending the simple style run starting at the given offset, or -1 if this is no
+   * valid style run - according to "Strong, Italic and Underline", the run must only consist of letters or spaces,
+   * and start and end with a letter, so scanning can stop at the first other character.
+   */
+  private int findSimpleFontStyleRunEnd(final int offs, final char marker) {
+    int end = offs;
+    while (end < this.source.length() && isSimpleFontStyleRunChar(this.source.charAt(end))) {
+      end++;
+    }
+    if (end == offs || end == this.source.length() || this.source.charAt(end) != marker) {
+      return -1;
+    }
+    if (!Character.isLetter(this.source.charAt(offs)) || !Character.isLetter(this.source.charAt(end - 1))) {
+      return -1;
+    }
+    return end;
+  }
+
+  private static boolean isSimpleFontStyleRunChar(final char candidate) {
+    return candidate == ' ' || Character.isLetter(candidate);
+  }
+
+  private static int indexOf(final CharSequence source, final char ch, final int fromOffset) {
+    if (source instanceof String) {
+      return ((String) source).indexOf(ch, fromOffset);
+    }
+    for (int i = Math.max(fromOffset, 0); i < source.length(); i++) {
+      if (source.charAt(i) == ch) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -32,32 +32,76 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp.content;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
 
 import com.hubersn.riscos.stronghelp.Version;
 import com.hubersn.riscos.util.encoding.Text;
-import com.hubersn.util.string.StringUtils;
 
 /**
  * Encapsulates StrongHelp page data and provides access to HTML-3.2-as-Java-supports-it format conversion.
+ * Title, body and HTML are created lazily and kept, so pages can be shared between threads.
  */
 public class SHPage {
 
-  private String fullText;
+  private static final String INCLUDE_COMMAND = "include";
+
+  /** Maximum nesting depth of #include - deeper nesting is most probably an error in the manual. */
+  private static final int MAX_INCLUDE_DEPTH = 16;
+
+  /**
+   * Date format for the creation date in the HTML header - SimpleDateFormat is not thread-safe.
+   * Always UTC, so that output does not depend on the time zone of the converting machine.
+   */
+  private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+    @Override
+    protected SimpleDateFormat initialValue() {
+      final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return format;
+    }
+  };
+
+  /** Complete source text - either a String or a view on the page data. */
+  private final CharSequence fullText;
 
   private String title;
 
-  private String body;
+  /** Source text of body, after preprocessing - either a String or a view on the page data. */
+  private CharSequence body;
+
+  private String bodyText;
 
   private String htmlBody;
 
+  private SHTokenStream tokens;
+
+  /** Cache holding this page, to be charged with the size of the HTML once converted - null if not cached. */
+  private SHPageCache pageCache;
+
+  /** Key of this page in the page cache. */
+  private Object pageCacheKey;
+
   private SHPageProviderIF pageProvider;
 
+  /** Key of the data of this page as returned by the page provider, null if unknown. */
+  private Object pageKey;
+
   private SHFontManager fontManager;
 
-  private SHFontConfig pageFontConfig;
+  private final SHFontConfig pageFontConfig;
+
+  private boolean useCurrentDate = true;
+
+  private Date creationDate;
 
   /**
    * Creates a new instance of SHPage - HTML conversion is done on demand, not on instance creation.
@@ -67,6 +111,10 @@ public class SHPage {
    * @param fontManager to provide font and style definitions for the created HTML.
    */
   public SHPage(final String sourceText, final SHPageProviderIF pageProvider, final SHFontManager fontManager) {
+    this((CharSequence)sourceText, pageProvider, fontManager);
+  }
+
+  private SHPage(final CharSequence sourceText, final SHPageProviderIF pageProvider, final SHFontManager fontManager) {
     // TODO page-local font config not yet filled
     this.pageFontConfig = new SHFontConfig();
     this.pageProvider = pageProvider;
@@ -85,6 +133,33 @@ public class SHPage {
     this(getPageDataAsText(sourceData), pageProvider, fontManager);
   }
 
+  /**
+   * Creates a new instance of SHPage - HTML conversion is done on demand, not on instance creation.
+   *
+   * @param sourceData view on StrongHelp DATA file block data.
+   * @param pageProvider callback to get arbitrary pages during preprocess/import resolve.
+   * @param fontManager to provide font and style definitions for the created HTML.
+   */
+  public SHPage(final ByteBuffer sourceData, final SHPageProviderIF pageProvider, final SHFontManager fontManager) {
+    // characters are mapped from the page data while rendering, so no decoded copy is created
+    this(Text.getTextView(sourceData), pageProvider, fontManager);
+  }
+
+  /**
+   * Returns the given StrongHelp DATA file block data as text, as used as source text of pages.
+   * 
+   * @param pageData view on StrongHelp DATA file block data.
+   * @return source text.
+   */
+  public static String getPageDataAsText(final ByteBuffer pageData) {
+    // robust processing of possibly non-text data
+    try {
+      return Text.getText(pageData);
+    } catch (final Exception ex) {
+      return "Error parsing file\n" + ex.getMessage() + "\n";
+    }
+  }
+
   private static String getPageDataAsText(final byte[] pageData) {
     // robust processing of possibly non-text data
     try {
@@ -95,15 +170,76 @@ public class SHPage {
   }
 
   private void createTitleAndBody() {
-    final int firstLineFeed = this.fullText.indexOf(10);
+    int firstLineFeed = -1;
+    for (int i = 0; i < this.fullText.length(); i++) {
+      if (this.fullText.charAt(i) == 10) {
+        firstLineFeed = i;
+        break;
+      }
+    }
     if (firstLineFeed < 0) {
       this.title = "No title found.";
     } else {
-      this.title = this.fullText.substring(0, firstLineFeed);
+      this.title = this.fullText.subSequence(0, firstLineFeed).toString();
     }
-    // without preprocess/import resolve this.body = this.fullText.substring(firstLineFeed + 1);
-    this.body = preprocess(this.fullText.substring(firstLineFeed + 1));
-    this.fullText = null; // no longer needed
+    // without preprocess/import resolve this.body = this.fullText.subSequence(firstLineFeed + 1, ...);
+    this.body = preprocess(this.fullText.subSequence(firstLineFeed + 1, this.fullText.length()));
+  }
+
+  /**
+   * Sets a fixed creation date to be written into the HTML header instead of the current date, so that
+   * converting the same page again produces identical HTML.
+   * 
+   * @param creationDate creation date to write, null to write no date at all.
+   */
+  public synchronized void setCreationDate(final Date creationDate) {
+    this.useCurrentDate = false;
+    this.creationDate = creationDate;
+    this.htmlBody = null;
+  }
+
+  /**
+   * Sets the key identifying the data of this page, as returned by SHPageProviderIF.getSHPageKey - used
+   * to detect pages including themselves.
+   * 
+   * @param pageKey key of page data, null if unknown.
+   */
+  public synchronized void setPageKey(final Object pageKey) {
+    this.pageKey = pageKey;
+    this.body = null;
+    this.bodyText = null;
+    this.tokens = null;
+    this.htmlBody = null;
+  }
+
+  /**
+   * Returns the complete source text of this page, without any preprocessing.
+   * 
+   * @return source text of this page.
+   */
+  public String getSourceText() {
+    return this.fullText.toString();
+  }
+
+  /**
+   * Returns the size of the HTML kept by this page in bytes, used as its size by page caches - the
+   * HTML encoding uses one byte per character.
+   * 
+   * @return size of kept HTML in bytes, 0 if not yet converted.
+   */
+  synchronized long getHTMLSize() {
+    return this.htmlBody == null ? 0 : this.htmlBody.length();
+  }
+
+  /**
+   * Sets the cache holding this page, which is charged with the size of the HTML once this page is converted.
+   * 
+   * @param pageCache cache holding this page.
+   * @param pageCacheKey key of this page in the cache.
+   */
+  synchronized void setPageCache(final SHPageCache pageCache, final Object pageCacheKey) {
+    this.pageCache = pageCache;
+    this.pageCacheKey = pageCacheKey;
   }
 
   /**
@@ -111,7 +247,7 @@ public class SHPage {
    * 
    * @return title of this page.
    */
-  public String getTitle() {
+  public synchronized String getTitle() {
     if (this.title == null) {
       createTitleAndBody();
     }
@@ -123,76 +259,237 @@ public class SHPage {
    * 
    * @return body of this page as source text.
    */
-  public String getBody() {
+  public synchronized String getBody() {
+    if (this.bodyText == null) {
+      this.bodyText = getBodySource().toString();
+    }
+    return this.bodyText;
+  }
+
+  private synchronized CharSequence getBodySource() {
     if (this.body == null) {
       createTitleAndBody();
     }
     return this.body;
   }
 
+  /**
+   * Returns the body of this page as token stream, e.g. for indexing or link checking - once lexed,
+   * the tokens are also used for converting to HTML.
+   * 
+   * @return body of this page as token stream.
+   */
+  public synchronized SHTokenStream getTokens() {
+    if (this.tokens == null) {
+      this.tokens = SHLexer.lex(getBodySource());
+    }
+    return this.tokens;
+  }
+
+  /**
+   * Returns the body of this page as plain text without any markup.
+   * 
+   * @return body of this page as plain text.
+   */
+  public String getPlainText() {
+    final SHPlainTextConsumer plainText = new SHPlainTextConsumer();
+    getTokens().accept(plainText);
+    return plainText.getText();
+  }
+
+  /**
+   * Returns the targets of all links on this page, as written in the source.
+   * 
+   * @return list of link targets.
+   */
+  public List<String> getLinkTargets() {
+    final SHTokenStream tokenStream = getTokens();
+    final List<String> linkTargets = new ArrayList<>();
+    for (int i = 0; i < tokenStream.getTokenCount(); i++) {
+      if (tokenStream.getType(i) == SHTokenStream.LINK) {
+        linkTargets.add(tokenStream.getLinkTarget(i));
+      }
+    }
+    return linkTargets;
+  }
+
   /**
    * Returns the body of this page converted to HTML-3.2-as-Java-supports-it format.
    * 
    * @return body of this page as HTML.
    */
   public String getBodyAsHTML() throws SHContentParseException {
-    if (this.htmlBody == null) {
-      this.htmlBody = createHTML();
+    final String html;
+    final SHPageCache cache;
+    final Object cacheKey;
+    synchronized (this) {
+      if (this.htmlBody != null) {
+        return this.htmlBody;
+      }
+      final StringBuilder htmlPage = new StringBuilder(getBodySource().length() * 2);
+      try {
+        writeHTML(htmlPage);
+      } catch (final IOException iox) {
+        // cannot happen when writing to a StringBuilder
+        throw new SHContentParseException("Cannot write HTML", iox);
+      }
+      this.htmlBody = htmlPage.toString();
+      html = this.htmlBody;
+      cache = this.pageCache;
+      cacheKey = this.pageCacheKey;
     }
-    return this.htmlBody;
+    // outside of the lock of this page, as the cache asks its pages for their size while holding its own lock
+    if (cache != null) {
+      cache.charge(cacheKey, this, html.length());
+    }
+    return html;
   }
 
-  private String createHTML() throws SHContentParseException {
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:SS", Locale.US);
-    String date = sdf.format(new Date());
-    SHtoHTML htmlCreator = new SHtoHTML(getBody(), this.pageFontConfig);
+  /**
+   * Writes this page converted to HTML-3.2-as-Java-supports-it format to the given target, e.g. a Writer -
+   * in contrast to getBodyAsHTML, the HTML is not kept by this page.
+   * 
+   * @param target target for page as HTML.
+   * @throws SHContentParseException on errors converting the page.
+   * @throws IOException on errors writing to the target.
+   */
+  public void writeHTML(final Appendable target) throws SHContentParseException, IOException {
+    writeHTML(target, null);
+  }
+
+  /**
+   * Writes this page converted to HTML-3.2-as-Java-supports-it format to the given target, e.g. a Writer -
+   * styles common to the whole manual are not included, but referenced as external style sheet, only
+   * page-specific styles are included. Conversion fills the page-local styles, so it is done for one
+   * thread at a time.
+   * 
+   * @param target target for page as HTML.
+   * @param styleSheetUrl URL of external style sheet holding the manual styles, null to include all styles.
+   * @throws SHContentParseException on errors converting the page.
+   * @throws IOException on errors writing to the target.
+   */
+  public synchronized void writeHTML(final Appendable target, final String styleSheetUrl) throws SHContentParseException, IOException {
+    if (this.htmlBody != null && styleSheetUrl == null) {
+      target.append(this.htmlBody);
+      return;
+    }
+    final Date date = this.useCurrentDate ? new Date() : this.creationDate;
+    final CharSequence bodySource = getBodySource();
+    // reuse the tokens if already lexed, but do not keep them just for HTML
+    SHtoHTML htmlCreator = this.tokens != null ? new SHtoHTML(this.tokens, this.pageFontConfig) : new SHtoHTML(bodySource, this.pageFontConfig);
     // create HTML to force parsing to fill all local styles before writing out header
-    final String html = htmlCreator.getHTML();
-    StringBuilder htmlPage = new StringBuilder("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">\n"
-                                             + "<!-- Created " + date + " by StrongHelpReader " + Version.getVersionString() + " -->\n"
-                                             + "<html>\n<head>\n<title>"+this.title+"</title>\n"
-                                             + "<style>\n" + this.fontManager.getActiveStyles(this.pageFontConfig) + "\n"
-                                             + "</style>\n</head>\n");
-    htmlPage.append("<body>\n");
-    htmlPage.append(html);
-    htmlPage.append("\n</body>\n");
-    htmlPage.append("</html>");
-    return htmlPage.toString();
-  }
-
-  private String preprocess(final String input) {
-    int possibleIncludeCommandOffset = input.indexOf("#");
-    if (possibleIncludeCommandOffset < 0) {
+    final StringBuilder html = new StringBuilder(bodySource.length() * 2);
+    htmlCreator.writeHTML(html);
+    target.append("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">\n")
+          .append("<!-- Created ").append(date == null ? "" : DATE_FORMAT.get().format(date) + " ").append("by StrongHelpReader ").append(Version.getVersionString()).append(" -->\n")
+          .append("<html>\n<head>\n<title>").append(this.title).append("</title>\n");
+    if (styleSheetUrl == null) {
+      target.append("<style>\n").append(this.fontManager.getActiveStyles(this.pageFontConfig)).append("\n")
+            .append("</style>\n");
+    } else {
+      target.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"").append(styleSheetUrl).append("\">\n");
+      final String pageStyles = this.fontManager.getPageStyles(this.pageFontConfig);
+      if (!pageStyles.isEmpty()) {
+        target.append("<style>\n").append(pageStyles).append("\n")
+              .append("</style>\n");
+      }
+    }
+    target.append("</head>\n");
+    target.append("<body>\n");
+    target.append(html);
+    target.append("\n</body>\n");
+    target.append("</html>");
+  }
+
+  private CharSequence preprocess(final CharSequence input) {
+    if (!containsInclude(input)) {
       return input;
     }
-    final StringBuilder result = new StringBuilder(input);
-    do {
-      // note from reading docs: prefix/postfix commands only manipulate links, not include path
-      if (possibleIncludeCommandOffset >= 0) {
-        char prevC = possibleIncludeCommandOffset == 0 ? 10 : result.charAt(possibleIncludeCommandOffset - 1);
-        if (prevC == 10) {
-          // read next characters and compare
-          if (StringUtils.startsWithIgnoreCase(result.substring(possibleIncludeCommandOffset + 1), "include")) {
-            // search for next LF
-            int endOfLine = possibleIncludeCommandOffset + 8;
-            while (endOfLine < result.length() && result.charAt(endOfLine) != 10) {
-              endOfLine++;
-            }
-            final String fileToInclude = result.substring(possibleIncludeCommandOffset + 8, endOfLine).trim();
-            final SHPage p = this.pageProvider.getSHPage(fileToInclude);
-            // according to doc, it is valid to NOT find a page, we replace the include and just go on...
-            if (p != null) {
-              result.replace(possibleIncludeCommandOffset, endOfLine, p.fullText);
-            } else {
-              result.replace(possibleIncludeCommandOffset, endOfLine, "");
-            }
-            // allow recursive includes, continue from old offset!
-          }
+    final String text = input.toString();
+    final StringBuilder result = new StringBuilder(text.length());
+    final Set<Object> activeIncludes = new HashSet<>();
+    if (this.pageKey != null) {
+      activeIncludes.add(this.pageKey);
+    }
+    expandIncludes(text, result, 0, activeIncludes);
+    return result.toString();
+  }
+
+  /**
+   * Checks for an #include at the start of any line, without requiring the text as String.
+   */
+  private static boolean containsInclude(final CharSequence text) {
+    final int lastPossibleOffset = text.length() - INCLUDE_COMMAND.length() - 1;
+    for (int i = 0; i <= lastPossibleOffset; i++) {
+      if (text.charAt(i) == '#' && (i == 0 || text.charAt(i - 1) == 10) && isIncludeCommandAt(text, i + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isIncludeCommandAt(final CharSequence text, final int offset) {
+    for (int i = 0; i < INCLUDE_COMMAND.length(); i++) {
+      if (Character.toLowerCase(text.charAt(offset + i)) != INCLUDE_COMMAND.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the given text to the result, replacing every #include line by the included page in a single pass - included
+   * pages are expanded recursively, but only up to a maximum depth and never while they are already being expanded.
+   * Note from reading docs: prefix/postfix commands only manipulate links, not include path.
+   */
+  private void expandIncludes(final String text, final StringBuilder result, final int depth, final Set<Object> activeIncludes) {
+    int copyFrom = 0;
+    int possibleIncludeCommandOffset = text.indexOf('#');
+    while (possibleIncludeCommandOffset >= 0) {
+      final boolean atLineStart = possibleIncludeCommandOffset == 0
+                                  ? result.length() == 0 || result.charAt(result.length() - 1) == 10
+                                  : text.charAt(possibleIncludeCommandOffset - 1) == 10;
+      if (atLineStart && text.regionMatches(true, possibleIncludeCommandOffset + 1, INCLUDE_COMMAND, 0, INCLUDE_COMMAND.length())) {
+        final int nameStart = possibleIncludeCommandOffset + 1 + INCLUDE_COMMAND.length();
+        int endOfLine = text.indexOf(10, nameStart);
+        if (endOfLine < 0) {
+          endOfLine = text.length();
         }
+        result.append(text, copyFrom, possibleIncludeCommandOffset);
+        // according to doc, it is valid to NOT find a page, we remove the include and just go on...
+        include(text.substring(nameStart, endOfLine).trim(), result, depth, activeIncludes);
+        copyFrom = endOfLine;
+        possibleIncludeCommandOffset = text.indexOf('#', endOfLine);
+      } else {
+        possibleIncludeCommandOffset = text.indexOf('#', possibleIncludeCommandOffset + 1);
       }
-      possibleIncludeCommandOffset = result.indexOf("#", possibleIncludeCommandOffset + 1);
-    } while (possibleIncludeCommandOffset >= 0);
-    return result.toString();
+    }
+    result.append(text, copyFrom, text.length());
+  }
+
+  private void include(final String fileToInclude, final StringBuilder result, final int depth, final Set<Object> activeIncludes) {
+    if (this.pageProvider == null) {
+      return;
+    }
+    if (depth >= MAX_INCLUDE_DEPTH) {
+      System.err.println("Error: #include nested too deep, ignoring " + fileToInclude);
+      return;
+    }
+    // names are resolved, so that links and aliases to a page being expanded are detected as well
+    final Object key = this.pageProvider.getSHPageKey(fileToInclude);
+    if (key == null) {
+      return;
+    }
+    if (activeIncludes.contains(key)) {
+      System.err.println("Error: cyclic #include, ignoring " + fileToInclude);
+      return;
+    }
+    final String includedText = this.pageProvider.getSHPageSource(fileToInclude);
+    if (includedText != null) {
+      activeIncludes.add(key);
+      expandIncludes(includedText, result, depth + 1, activeIncludes);
+      activeIncludes.remove(key);
+    }
   }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.content;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for StrongHelp pages of one manual, so that decoding, preprocessing and HTML conversion
+ * are done only once for pages that are requested again. Least recently used pages are evicted
+ * as soon as the HTML of all cached pages exceeds the maximum size. Pages need not be converted
+ * to HTML when added - a page charges the cache with the size of its HTML once it is converted.
+ */
+public class SHPageCache {
+
+  /** Default maximum size of all cached pages in bytes of HTML. */
+  public static final long DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+  private final Map<Object, CacheEntry> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final long maxSize;
+
+  /** Sum of the sizes charged for all cached pages. */
+  private long totalSize;
+
+  private long hitCount;
+
+  private long missCount;
+
+  /**
+   * Creates a new instance of SHPageCache with the default maximum size.
+   */
+  public SHPageCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a new instance of SHPageCache with the given maximum size.
+   * 
+   * @param maxSize maximum size of all cached pages in bytes of HTML.
+   */
+  public SHPageCache(final long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cached page for the given key, or null if not cached.
+   * 
+   * @param key key of page, e.g. the file entry of the page.
+   * @return cached page, or null.
+   */
+  public synchronized SHPage get(final Object key) {
+    final CacheEntry entry = this.pages.get(key);
+    if (entry == null) {
+      this.missCount++;
+      return null;
+    }
+    this.hitCount++;
+    return entry.page;
+  }
+
+  /**
+   * Adds the given page to the cache, evicting least recently used pages if necessary - the page
+   * is charged with the size of its HTML so far, and again whenever it is converted to HTML.
+   * 
+   * @param key key of page, e.g. the file entry of the page.
+   * @param page page to cache.
+   */
+  public synchronized void put(final Object key, final SHPage page) {
+    final CacheEntry entry = new CacheEntry(page, page.getHTMLSize());
+    final CacheEntry replacedEntry = this.pages.put(key, entry);
+    if (replacedEntry != null) {
+      this.totalSize -= replacedEntry.size;
+    }
+    this.totalSize += entry.size;
+    page.setPageCache(this, key);
+    evict();
+  }
+
+  /**
+   * Charges the cache with the new size of the given cached page, e.g. after converting it to HTML - ignored
+   * if the page is no longer cached.
+   * 
+   * @param key key of page.
+   * @param page page that changed its size.
+   * @param size new size of page in bytes of HTML.
+   */
+  synchronized void charge(final Object key, final SHPage page, final long size) {
+    final CacheEntry entry = this.pages.get(key);
+    if (entry == null || entry.page != page) {
+      return;
+    }
+    this.totalSize += size - entry.size;
+    entry.size = size;
+    evict();
+  }
+
+  private void evict() {
+    // eldest first, the page just added or charged is the most recently used and never evicted
+    final Iterator<CacheEntry> it = this.pages.values().iterator();
+    while (this.totalSize > this.maxSize && this.pages.size() > 1) {
+      this.totalSize -= it.next().size;
+      it.remove();
+    }
+  }
+
+  /**
+   * Removes all pages from the cache.
+   */
+  public synchronized void clear() {
+    this.pages.clear();
+    this.totalSize = 0;
+  }
+
+  /**
+   * Returns the number of pages currently cached.
+   * 
+   * @return number of pages cached.
+   */
+  public synchronized int getSize() {
+    return this.pages.size();
+  }
+
+  /**
+   * Returns the size of all cached pages.
+   * 
+   * @return size of all cached pages in bytes of HTML.
+   */
+  public synchronized long getTotalSize() {
+    return this.totalSize;
+  }
+
+  /**
+   * Returns the number of successful lookups.
+   * 
+   * @return number of cache hits.
+   */
+  public synchronized long getHitCount() {
+    return this.hitCount;
+  }
+
+  /**
+   * Returns the number of failed lookups.
+   * 
+   * @return number of cache misses.
+   */
+  public synchronized long getMissCount() {
+    return this.missCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "SHPageCache[pages=" + this.pages.size() + ", size=" + this.totalSize + ", hits=" + this.hitCount + ", misses=" + this.missCount + "]";
+  }
+
+  private static class CacheEntry {
+
+    private final SHPage page;
+
+    private long size;
+
+    private CacheEntry(final SHPage page, final long size) {
+      this.page = page;
+      this.size = size;
+    }
+  }
+}
@@ -45,6 +45,23 @@ public interface SHPageProviderIF {
    */
   SHPage getSHPage(final String pageName);
 
+  /**
+   * Returns the source text of the StrongHelp page with the given name, e.g. to include it into another page.
+   * 
+   * @param pageName name of page
+   * @return source text of page of given name, or null if not existing.
+   */
+  String getSHPageSource(final String pageName);
+
+  /**
+   * Returns the key identifying the data of the StrongHelp page with the given name - all names referring
+   * to the same data, e.g. via links, return equal keys.
+   * 
+   * @param pageName name of page
+   * @return key of page data of given name, or null if not existing.
+   */
+  Object getSHPageKey(final String pageName);
+
   /**
    * Shows the StrongHelp page with the given name.
    * 
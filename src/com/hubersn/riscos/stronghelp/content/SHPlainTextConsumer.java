@@ -0,0 +1,83 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.content;
+
+/**
+ * Token consumer that extracts the plain text of a StrongHelp page, e.g. for full text search - markup and
+ * commands are dropped, links are replaced by their text.
+ */
+public class SHPlainTextConsumer implements SHTokenConsumerIF {
+
+  private final StringBuilder text = new StringBuilder();
+
+  @Override
+  public void token(final SHTokenStream tokens, final int index) {
+    final CharSequence source = tokens.getSource();
+    switch (tokens.getType(index)) {
+      case SHTokenStream.TEXT:
+      case SHTokenStream.STYLE:
+      case SHTokenStream.ESCAPE:
+        this.text.append(source, tokens.getContentStart(index), tokens.getContentEnd(index));
+        break;
+      case SHTokenStream.NEWLINE:
+        this.text.append('\n');
+        break;
+      case SHTokenStream.TAB:
+        this.text.append('\t');
+        break;
+      case SHTokenStream.LINK:
+        this.text.append(tokens.getLinkText(index));
+        break;
+      case SHTokenStream.INLINE_COMMAND:
+        // only the text of font commands like {fCode:text} is visible
+        final String command = tokens.getContent(index);
+        final int textStart = command.indexOf(':');
+        if (textStart >= 0 && (command.charAt(0) == 'f' || command.charAt(0) == 'F')) {
+          this.text.append(command, textStart + 1, command.length());
+        }
+        break;
+      default:
+        // commands and comments are invisible
+        break;
+    }
+  }
+
+  /**
+   * Returns the plain text collected so far.
+   * 
+   * @return plain text.
+   */
+  public String getText() {
+    return this.text.toString();
+  }
+}
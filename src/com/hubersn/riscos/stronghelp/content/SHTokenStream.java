@@ -0,0 +1,276 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.content;
+
+import java.util.Arrays;
+
+/**
+ * Compact token stream of StrongHelp page text as produced by SHLexer - tokens are stored as type, start offset
+ * and end offset into the source text in primitive arrays, so no objects are created per token. Tokens cover
+ * the source text without gaps, including the markup characters, so the offset following a token is the start
+ * of the next one - the content of a token is the part without markup, e.g. the text between '&lt;' and '&gt;'
+ * of a link.
+ */
+public class SHTokenStream {
+
+  /** Run of plain text. */
+  public static final int TEXT = 0;
+
+  /** Line feed. */
+  public static final int NEWLINE = 1;
+
+  /** TAB character or \t. */
+  public static final int TAB = 2;
+
+  /** Command line starting with '#' including its line feed, content is the line without '#' and line feed. */
+  public static final int COMMAND = 3;
+
+  /** Comment line starting with "# " including its line feed, content is the line without '#' and line feed. */
+  public static final int COMMENT = 4;
+
+  /** Link, content is "text=&gt;target" or "target". */
+  public static final int LINK = 5;
+
+  /** Inline command, content is the text between '{' and '}'. */
+  public static final int INLINE_COMMAND = 6;
+
+  /** Simple style run like *bold*, content is the styled text - the marker is the first character of the token. */
+  public static final int STYLE = 7;
+
+  /** Character escaped by '\', content is the escaped character - empty for a '\' at the very end. */
+  public static final int ESCAPE = 8;
+
+  private final CharSequence source;
+
+  private int count;
+
+  private byte[] types;
+
+  private int[] starts;
+
+  private int[] ends;
+
+  /**
+   * Creates a new, empty instance of SHTokenStream for the given source text.
+   * 
+   * @param source source text.
+   */
+  SHTokenStream(final CharSequence source) {
+    this.source = source;
+    // roughly one token per line and per markup
+    final int capacity = Math.max(16, source.length() / 16);
+    this.types = new byte[capacity];
+    this.starts = new int[capacity];
+    this.ends = new int[capacity];
+  }
+
+  void add(final int type, final int start, final int end) {
+    if (this.count == this.types.length) {
+      final int capacity = this.count * 2;
+      this.types = Arrays.copyOf(this.types, capacity);
+      this.starts = Arrays.copyOf(this.starts, capacity);
+      this.ends = Arrays.copyOf(this.ends, capacity);
+    }
+    this.types[this.count] = (byte) type;
+    this.starts[this.count] = start;
+    this.ends[this.count] = end;
+    this.count++;
+  }
+
+  /**
+   * Returns the source text of this token stream.
+   * 
+   * @return source text.
+   */
+  public CharSequence getSource() {
+    return this.source;
+  }
+
+  /**
+   * Returns the number of tokens.
+   * 
+   * @return number of tokens.
+   */
+  public int getTokenCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns the type of the given token.
+   * 
+   * @param index token index.
+   * @return token type, one of the constants of this class.
+   */
+  public int getType(final int index) {
+    return this.types[index];
+  }
+
+  /**
+   * Returns the offset of the first character of the given token, including markup.
+   * 
+   * @param index token index.
+   * @return start offset of token in source text.
+   */
+  public int getStart(final int index) {
+    return this.starts[index];
+  }
+
+  /**
+   * Returns the offset following the last character of the given token, including markup - this is the
+   * start offset of the next token.
+   * 
+   * @param index token index.
+   * @return end offset (exclusive) of token in source text.
+   */
+  public int getEnd(final int index) {
+    return this.ends[index];
+  }
+
+  /**
+   * Returns the offset of the first character of the content of the given token.
+   * 
+   * @param index token index.
+   * @return start offset of token content in source text.
+   */
+  public int getContentStart(final int index) {
+    switch (this.types[index]) {
+      case COMMAND:
+      case COMMENT:
+      case LINK:
+      case INLINE_COMMAND:
+      case STYLE:
+      case ESCAPE:
+        return this.starts[index] + 1;
+      default:
+        return this.starts[index];
+    }
+  }
+
+  /**
+   * Returns the offset following the last character of the content of the given token.
+   * 
+   * @param index token index.
+   * @return end offset (exclusive) of token content in source text.
+   */
+  public int getContentEnd(final int index) {
+    final int end = this.ends[index];
+    switch (this.types[index]) {
+      case COMMAND:
+      case COMMENT:
+        // the last line of the text might have no line feed
+        return end - 1 > this.starts[index] && this.source.charAt(end - 1) == 10 ? end - 1 : end;
+      case LINK:
+      case INLINE_COMMAND:
+      case STYLE:
+        return end - 1;
+      default:
+        return end;
+    }
+  }
+
+  /**
+   * Returns the content of the given token.
+   * 
+   * @param index token index.
+   * @return content of token.
+   */
+  public String getContent(final int index) {
+    return this.source.subSequence(getContentStart(index), getContentEnd(index)).toString();
+  }
+
+  /**
+   * Returns the offset of the "=&gt;" separating link text and link target of the given link token - as the
+   * first '&gt;' ends a simple link, it is the first '&gt;' inside the link.
+   * 
+   * @param index token index of link.
+   * @return offset of separator, or -1 for simple links.
+   */
+  private int getLinkSeparator(final int index) {
+    final int contentEnd = getContentEnd(index);
+    for (int pos = getContentStart(index); pos < contentEnd; pos++) {
+      if (this.source.charAt(pos) == '>') {
+        return pos - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Checks if the given link token is of the form "text=&gt;target".
+   * 
+   * @param index token index of link.
+   * @return link with separate text?
+   */
+  public boolean isLinkWithText(final int index) {
+    return getLinkSeparator(index) >= 0;
+  }
+
+  /**
+   * Returns the text to show for the given link token, as written in the source.
+   * 
+   * @param index token index of link.
+   * @return link text.
+   */
+  public String getLinkText(final int index) {
+    final int separator = getLinkSeparator(index);
+    return this.source.subSequence(getContentStart(index), separator >= 0 ? separator : getContentEnd(index)).toString();
+  }
+
+  /**
+   * Returns the target of the given link token, as written in the source - for simple
+   * links, the target ends at the first space.
+   * 
+   * @param index token index of link.
+   * @return link target.
+   */
+  public String getLinkTarget(final int index) {
+    final int separator = getLinkSeparator(index);
+    if (separator >= 0) {
+      return this.source.subSequence(separator + 2, getContentEnd(index)).toString();
+    }
+    final String link = getContent(index);
+    final int space = link.indexOf(' ');
+    return space > 0 ? link.substring(0, space) : link;
+  }
+
+  /**
+   * Hands all tokens to the given consumer, in source order.
+   * 
+   * @param consumer consumer of tokens.
+   */
+  public void accept(final SHTokenConsumerIF consumer) {
+    for (int i = 0; i < this.count; i++) {
+      consumer.token(this, i);
+    }
+  }
+}
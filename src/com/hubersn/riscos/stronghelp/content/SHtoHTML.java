@@ -32,12 +32,14 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp.content;
 
-import java.io.PrintStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import com.hubersn.riscos.stronghelp.StrongHelp;
 import com.hubersn.util.string.StringUtils;
 
 /**
@@ -45,18 +47,15 @@ import com.hubersn.util.string.StringUtils;
  */
 public class SHtoHTML {
 
+  /** Show unknown commands in the HTML - tracing is done only if debug output is activated. */
   private static final boolean DEBUG = true;
 
-  private static final PrintStream DEBUG_CHANNEL = System.out;
-
   /** URL protocol to use for internal links. */
   public static final String FAKE_PROTOCOL = "";
   //public static final String FAKE_PROTOCOL = "ftp://";
 
-  // list character, found by experimentation, probably an artifact of the "wrong" encoding handling
-  private static final char LIST_CHAR = 65533;
-
-  private static final String BULLET = "&#8226;";
+  /** List character - the bullet at 0x8F in RISC OS Latin1. */
+  private static final char LIST_CHAR = '\u2022';
 
   // try to imitate StrongHelp table visualization - no border, and everything as compact as possible
   private static final String TABLE_PARAMS = " border=0 cellpadding=0 cellspacing=0";
@@ -73,6 +72,105 @@ public class SHtoHTML {
 
   private static final String SUBPAGE_TITLE_END = "</h2>";
 
+  /** Number of HTML characters to collect before handing them over to the target. */
+  private static final int FLUSH_THRESHOLD = 8192;
+
+  /** Replacement for all characters below 256 that must not be written as they are, null if no replacement is needed. */
+  private static final String[] ESCAPES = new String[256];
+
+  /** All characters below 256 that can be written as they are and have no meaning for the main parse loop. */
+  private static final boolean[] PLAIN = new boolean[256];
+
+  static {
+    ESCAPES[0] = "";
+    ESCAPES['"'] = "&quot;";
+    // apos not supported by Java HTML?
+    //ESCAPES['\''] = "&apos;";
+    ESCAPES['&'] = "&amp;";
+    ESCAPES['<'] = "&lt;";
+    ESCAPES['>'] = "&gt;";
+    ESCAPES['ü'] = "&uuml;";
+    ESCAPES['Ü'] = "&Uuml;";
+    ESCAPES['ö'] = "&ouml;";
+    ESCAPES['Ö'] = "&Ouml;";
+    ESCAPES['ä'] = "&auml;";
+    ESCAPES['Ä'] = "&Auml;";
+    ESCAPES['ß'] = "&szlig;";
+    for (int i = 0; i < PLAIN.length; i++) {
+      PLAIN[i] = ESCAPES[i] == null;
+    }
+    for (final char special : new char[] { 9, 10, '#', '/', '*', '_', '{', '\\' }) {
+      PLAIN[special] = false;
+    }
+  }
+
+  /**
+   * All #commands with their case-insensitive name prefix - the order of declaration decides for
+   * commands sharing a prefix, e.g. spritefile must be checked before sprite.
+   */
+  private static enum Command {
+    F("f"),
+    LINE("line"),
+    ALIGN("align"),
+    SUBPAGE("subpage"),
+    TAG("tag"),
+    BELOW("below"),
+    BOTTOM("bottom"),
+    DRAW("draw"),
+    INDENT("indent"),
+    SPRITEFILE("spritefile"),
+    SPRITE("sprite"),
+    PREFIX("prefix"),
+    POSTFIX("postfix"),
+    TABLE("table"),
+    TAB("tab"),
+    WRAP("wrap"),
+    ROOT("root"),
+    PARENT("parent"),
+    BACKGROUND("background");
+
+    /** Candidate commands by lower case first character of their name, in order of declaration. */
+    private static final Command[][] BY_FIRST_CHAR = new Command[128][];
+
+    static {
+      for (final Command command : values()) {
+        final char first = command.prefix.charAt(0);
+        final Command[] previous = BY_FIRST_CHAR[first];
+        final Command[] candidates = previous == null ? new Command[1] : Arrays.copyOf(previous, previous.length + 1);
+        candidates[candidates.length - 1] = command;
+        BY_FIRST_CHAR[first] = candidates;
+      }
+    }
+
+    private final String prefix;
+
+    private Command(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    /**
+     * Returns the command the given command text starts with.
+     * 
+     * @param commandText command text, without '#'.
+     * @return matching command, or null if unknown.
+     */
+    private static Command match(final String commandText) {
+      if (commandText.isEmpty()) {
+        return null;
+      }
+      final char first = Character.toLowerCase(commandText.charAt(0));
+      final Command[] candidates = first < BY_FIRST_CHAR.length ? BY_FIRST_CHAR[first] : null;
+      if (candidates != null) {
+        for (final Command command : candidates) {
+          if (commandText.regionMatches(true, 0, command.prefix, 0, command.prefix.length())) {
+            return command;
+          }
+        }
+      }
+      return null;
+    }
+  }
+
   private static enum WrapMode {
     On,
     Off,
@@ -94,12 +192,21 @@ public class SHtoHTML {
   /** Current offset into source string to convert. */
   private int offs;
 
-  /** Source string to convert. */
-  private String s;
+  /** Source text to convert. */
+  private CharSequence s;
+
+  /** Tokens of the source text to convert. */
+  private SHTokenStream tokens;
+
+  /** Index of the next token to handle. */
+  private int tokenIndex;
 
-  /** Holds the HTML result. */
+  /** Holds the HTML result not yet handed over to the target. */
   private final StringBuilder sb;
 
+  /** Target for the HTML result. */
+  private Appendable target;
+
   /** Closing tag to write at the end. */
   private String ct;
 
@@ -115,12 +222,6 @@ public class SHtoHTML {
   /** Currently in an underlined style run? */
   private boolean underlineState = false;
 
-  /** Current char to be handled. */
-  private char c;
-
-  /** Previous char. */
-  private char prevC;
-
   /** Possible pending end tag to write (used for fonts done by real commands). */
   private String pendingEndTag;
 
@@ -165,6 +266,9 @@ public class SHtoHTML {
 
   private TableRowInfo currentTableRowInfo;
 
+  /** Offset of the start of the current tab-table in the active output channel. */
+  private int currentTableStartOffset;
+
   /** Indicates the mode e.g. for code where every space (if more than one) is inserted as non-breakable space. */
   private boolean spaceAsNonBreakableSpace;
 
@@ -173,7 +277,7 @@ public class SHtoHTML {
    * 
    * @param source StrongHelp source page data.
    */
-  public SHtoHTML(final String source) {
+  public SHtoHTML(final CharSequence source) {
     this(source, new SHFontConfig());
   }
 
@@ -183,12 +287,22 @@ public class SHtoHTML {
    * @param source StrongHelp source page data.
    * @param pageFontConfig to store additional font/style information while parsing page.
    */
-  public SHtoHTML(final String source, final SHFontConfig pageFontConfig) {
+  public SHtoHTML(final CharSequence source, final SHFontConfig pageFontConfig) {
+    this(SHLexer.lex(source), pageFontConfig);
+  }
+
+  /**
+   * Creates a new instance of SHtoHTML for already lexed source page data.
+   * 
+   * @param tokens tokens of StrongHelp source page data, as returned by SHLexer.lex.
+   * @param pageFontConfig to store additional font/style information while parsing page.
+   */
+  public SHtoHTML(final SHTokenStream tokens, final SHFontConfig pageFontConfig) {
     assert(pageFontConfig != null);
-    this.s = source;
+    this.tokens = tokens;
+    this.tokenIndex = 0;
+    this.s = tokens.getSource();
     this.pageFontConfig = pageFontConfig;
-    this.c = 0;
-    this.prevC = this.c;
     this.offs = 0;
     this.ct = "";
     this.sb = new StringBuilder();
@@ -218,22 +332,35 @@ public class SHtoHTML {
   }
 
   private void correctColspanValues() {
-    // go through our table correction data structure and correct offsets from back to front
+    // go through our table correction data structure and splice the colspans into the table in one pass from front to back
     d("Assessing colspan range...");
     int maxColspan = 0;
-    for (int i = this.currentTableCorrectionData.size() - 1; i >= 0; i--) {
+    final StringBuilder output = this.activeOutputChannel;
+    StringBuilder correctedTable = null;
+    int copiedUpTo = this.currentTableStartOffset;
+    for (int i = 0; i < this.currentTableCorrectionData.size(); i++) {
       final TableRowInfo tri = this.currentTableCorrectionData.get(i);
       if (this.lastTableMaxColumns > tri.lastTdColumnIndex) {
-        if (tri.lastTdTagOffset < 0) {
+        if (tri.lastTdTagOffset < copiedUpTo) {
           System.err.println("Strange tag offset encountered - table row info no "+i);
         } else {
           // currently, we just add a colspan=number_of_missing_columns_to_the_right parameter to the
           // last td tag, but this does not lead to a good emulation of StrongHelp tab-tables.
-          maxColspan = Math.max(maxColspan, this.lastTableMaxColumns - tri.lastTdColumnIndex + 1);
-          this.activeOutputChannel.insert(tri.lastTdTagOffset, " colspan=" + (this.lastTableMaxColumns - tri.lastTdColumnIndex + 1));
+          final int colspan = this.lastTableMaxColumns - tri.lastTdColumnIndex + 1;
+          maxColspan = Math.max(maxColspan, colspan);
+          if (correctedTable == null) {
+            correctedTable = new StringBuilder(output.length() - this.currentTableStartOffset + this.currentTableCorrectionData.size() * 12);
+          }
+          correctedTable.append(output, copiedUpTo, tri.lastTdTagOffset).append(" colspan=").append(colspan);
+          copiedUpTo = tri.lastTdTagOffset;
         }
       }
     }
+    if (correctedTable != null) {
+      correctedTable.append(output, copiedUpTo, output.length());
+      output.setLength(this.currentTableStartOffset);
+      output.append(correctedTable);
+    }
     d("maxColspan for this table: "+maxColspan);
     this.currentTableCorrectionData = new ArrayList<>();
     this.currentTableRowInfo = null;
@@ -380,41 +507,49 @@ public class SHtoHTML {
    * @return page data as HTML.
    */
   public String getHTML() throws SHContentParseException {
+    final StringBuilder html = new StringBuilder(this.s.length() * 2);
+    writeHTML(html);
+    return html.toString();
+  }
+
+  /**
+   * Writes the StrongHelp source page data converted to HTML-3.2-as-Java-supports-it format to the given target -
+   * the HTML is handed over in chunks while converting, only tables are kept until they are complete.
+   * 
+   * @param target target for page data as HTML.
+   */
+  public void writeHTML(final Appendable target) throws SHContentParseException {
+    this.target = target;
     try {
       // every file starts with an "implicit #tab command", but we start only when the first tabbed line arrives, or when #tab is done
       if (peekNextLineForTab()) {
         beginTable();
       }
-      while (this.offs < this.s.length()) {
-        nextChar();
-        switch (this.c) {
-          case 9:
+      while (this.tokenIndex < this.tokens.getTokenCount()) {
+        flushOutput(false);
+        final int index = this.tokenIndex++;
+        final int start = this.tokens.getStart(index);
+        this.offs = this.tokens.getEnd(index);
+        switch (this.tokens.getType(index)) {
+          case SHTokenStream.TAB:
             // TODO TAB support is not complete - if there is a line of text that has no TABs, it is required to be
             // not in the table - "Paragraphs without TAB's in them will not be influenced"
             // this could be done via a ridiculously high column span (idea by Steve Drain - colspan=99)?
             // does not visualize well in JEditorPane - count max column in every table and backtrack to colspan values?
-            handleTab();
+            handleTab(start);
             break;
-          case '#':
-            // commands only valid on start of line
-            if (this.prevC == 0 || this.prevC == 10 || this.prevC == '\n') {
-              parseCommands();
-            } else {
-              out(this.c);
-            }
+          case SHTokenStream.COMMAND:
+            parseCommands(this.tokens.getContent(index));
+            // commands might consume following lines, e.g. #subpage and #table
+            skipTokensTo(this.offs);
             break;
-          case '<':
-            // certain characters preceding or following the link-start-character actually mean "go ahead, no link"
-            if (this.prevC == '\\' || this.prevC == '<' || peekNextChar() == '=' || peekNextChar() == '-' || peekNextChar() == '<') {
-              // escaped character, insert as entity
-              append(this.c);
-              // to handle \<<link> correctly, manipulated prevChar to something never checked
-              this.prevC = '_';
-            } else {
-              parseLink();
-            }
+          case SHTokenStream.COMMENT:
+            addComment(this.tokens.getContent(index));
             break;
-          case 10:
+          case SHTokenStream.LINK:
+            parseLink(index);
+            break;
+          case SHTokenStream.NEWLINE:
             if (this.tabAsTableState) {
               // once we are in a table structure, we keep it forever.
               outNewlineInsideTable();
@@ -429,55 +564,17 @@ public class SHtoHTML {
               }
             }
             break;
-          case '/':
-            // only valid if preceded by whitespace
-            if (this.prevC == 32 || this.prevC == 10) {
-              italic();
-              break;
-            }
-            append('/');
-            break;
-          case '*':
-            // only valid as bold if preceded by whitespace
-            if (this.prevC == 32 || this.prevC == 10) {
-              bold();
-              break;
-            }
-            append('*');
-            break;
-          case '_':
-            // only valid if preceded by whitespace
-            if (this.prevC == 32 || this.prevC == 10) {
-              underline();
-              break;
-            }
-            append('_');
+          case SHTokenStream.STYLE:
+            handleFontStyle(index);
             break;
-          case '{':
-            inlineCommand();
+          case SHTokenStream.INLINE_COMMAND:
+            inlineCommand(this.tokens.getContent(index));
             break;
-          case '\\':
-            // escape character - skip and add next as literal
-            nextChar();
-            if (this.c == 't') {
-              // special semantics: \t is defined as being a TAB
-              handleTab();
-            } else {
-              // might need to be replaced by entity
-              append(this.c);
-              if (this.c == '<') {
-                // to handle \<<link> correctly, manipulated prevChar to something never checked
-                this.c = '_';
-              }
-            }
+          case SHTokenStream.ESCAPE:
+            appendEscaped(index);
             break;
           default:
-            if (StringUtils.isEmptyOrNull(this.ct)) {
-              // first start of text
-              this.ct = "<br>";
-            }
-            // just fill in characters, maybe replaced by their entity
-            append(this.c);
+            appendText(start, this.offs, true);
         }
       }
       // check if we had an alignment switch, and hence need to write out an end-div tag
@@ -489,13 +586,30 @@ public class SHtoHTML {
       }
       out(this.ct);
       writeFooter();
+      flushOutput(true);
     } catch (final Exception ex) {
       e("Error encountered...state: offs=" + this.offs
         + ", current result=\n" + this.sb.toString()
         + "\nfor source=\n" + this.s);
       throw new SHContentParseException("Fatal parse error - current state: offs=" + this.offs, ex);
     }
-    return this.sb.toString();
+  }
+
+  /**
+   * Hands over the HTML produced so far to the target - but not while in a table, because
+   * colspans are corrected at the end of the table.
+   * 
+   * @param force hand over even if only a little HTML was produced.
+   * @throws IOException on errors writing to the target.
+   */
+  private void flushOutput(final boolean force) throws IOException {
+    if (this.tabAsTableState || this.activeOutputChannel != this.sb) {
+      return;
+    }
+    if (force || this.sb.length() >= FLUSH_THRESHOLD) {
+      this.target.append(this.sb);
+      this.sb.setLength(0);
+    }
   }
 
   private String getFragment(final String source) {
@@ -515,45 +629,36 @@ public class SHtoHTML {
    */
   private void parseFragment(final String source, final StringBuilder output) {
     // save parts of previous context
-    final String savedString = this.s;
+    final CharSequence savedString = this.s;
     final int savedOffs = this.offs;
-    final char savedC = this.c;
-    final char savedPrevC = this.prevC;
+    final SHTokenStream savedTokens = this.tokens;
+    final int savedTokenIndex = this.tokenIndex;
     final StringBuilder savedOutputChannel = this.activeOutputChannel;
 
     // like if we were fresh from the start
+    this.tokens = SHLexer.lexFragment(source);
+    this.tokenIndex = 0;
     this.offs = 0;
     this.s = source;
-    this.c = 0;
-    this.prevC = 0;
     setActiveOutputChannel(output);
 
-    // stripped-down version of main parse loop
-    while (this.offs < this.s.length()) {
-      nextChar();
-      switch (this.c) {
-        case '<':
-          if (this.prevC == '\\' || this.prevC == '<' || peekNextChar() == '=' || peekNextChar() == '-' || peekNextChar() == '<') {
-            // escaped character, insert as entity
-            append(this.c);
-            // to handle \<<link> correctly, manipulated prevChar to something never checked
-            this.prevC = '_';
-          } else {
-            parseLink();
-          }
+    // stripped-down version of main parse loop - fragments only know links, inline commands and escapes
+    while (this.tokenIndex < this.tokens.getTokenCount()) {
+      final int index = this.tokenIndex++;
+      final int start = this.tokens.getStart(index);
+      this.offs = this.tokens.getEnd(index);
+      switch (this.tokens.getType(index)) {
+        case SHTokenStream.LINK:
+          parseLink(index);
           break;
-        case '{':
-          inlineCommand();
+        case SHTokenStream.INLINE_COMMAND:
+          inlineCommand(this.tokens.getContent(index));
           break;
-        case '\\':
-          // escape character - skip and add next as literal
-          nextChar();
-          // might need to be replaced by entity
-          append(this.c);
+        case SHTokenStream.ESCAPE:
+          appendEscaped(index);
           break;
         default:
-          // just fill in characters, maybe replaced by their entity
-          append(this.c);
+          appendText(start, this.offs, false);
       }
     }
 
@@ -561,21 +666,26 @@ public class SHtoHTML {
     setActiveOutputChannel(savedOutputChannel);
     this.s = savedString;
     this.offs = savedOffs;
-    this.c = savedC;
-    this.prevC = savedPrevC;
+    this.tokens = savedTokens;
+    this.tokenIndex = savedTokenIndex;
     // caller is responsible to output the output
   }
 
-  private void nextChar() {
-    this.prevC = this.c;
-    if (this.offs < this.s.length()) {
-      this.c = this.s.charAt(this.offs++);
-      if (this.c > 255) {
-        // for debugging of "special characters", probably unmapped in WINDOWS-1252
-        //d("Character encountered: "+(int)this.c+" at offset "+(this.offs - 1));
-      }
-    } else {
-      this.c = 0;
+  /**
+   * Continues with the token following the given offset, after parts of the source were consumed
+   * directly, like the lines of a #table - if the offset is inside a token, e.g. a link spanning several
+   * lines, the rest of the source is scanned again from the given offset.
+   * 
+   * @param offset offset of start of line to continue with.
+   */
+  private void skipTokensTo(final int offset) {
+    final int tokenCount = this.tokens.getTokenCount();
+    while (this.tokenIndex < tokenCount && this.tokens.getEnd(this.tokenIndex) <= offset) {
+      this.tokenIndex++;
+    }
+    if (this.tokenIndex < tokenCount && this.tokens.getStart(this.tokenIndex) < offset) {
+      this.tokens = SHLexer.lex(this.s, offset);
+      this.tokenIndex = 0;
     }
   }
 
@@ -586,13 +696,6 @@ public class SHtoHTML {
     return 0;
   }
 
-  private char peekNextNextChar() {
-    if (this.offs < this.s.length() - 1) {
-      return this.s.charAt(this.offs + 1);
-    }
-    return 0;
-  }
-
   private boolean peekNextLineForTab() {
     int offset = this.offs;
     while (offset < this.s.length()) {
@@ -616,69 +719,91 @@ public class SHtoHTML {
    * @param cToAdd character to add to stringbuilder possibly as entity.
    */
   private void append(final char cToAdd) {
-    switch (cToAdd) {
-      case 0:
-        break;
-      case ' ':
-        // only handle multiple spaces as nbsp, or else wrapping won't work good enough
-        if (this.spaceAsNonBreakableSpace && peekNextChar() == ' ') {
-          out(NBSP);
+    if (cToAdd == ' ') {
+      // only handle multiple spaces as nbsp, or else wrapping won't work good enough
+      if (this.spaceAsNonBreakableSpace && peekNextChar() == ' ') {
+        out(NBSP);
+      } else {
+        out(' ');
+      }
+    } else if (cToAdd < ESCAPES.length) {
+      final String escape = ESCAPES[cToAdd];
+      if (escape == null) {
+        out(cToAdd);
+      } else {
+        out(escape);
+      }
+    } else {
+      // beyond Latin1, so use a character reference - independent of the encoding of the HTML
+      out("&#" + (int)cToAdd + ";");
+    }
+  }
+
+  /**
+   * Appends the given range of text to the active output channel - runs of characters that need neither
+   * escaping nor special treatment are copied in one go.
+   * 
+   * @param start offset of first character of text.
+   * @param end offset following last character of text.
+   * @param mainText text of the page itself, not of a fragment - starts the text of the page.
+   */
+  private void appendText(final int start, final int end, final boolean mainText) {
+    int pos = start;
+    while (pos < end) {
+      final char candidate = this.s.charAt(pos);
+      if (isPlain(candidate)) {
+        int runEnd = pos + 1;
+        while (runEnd < end && isPlain(this.s.charAt(runEnd))) {
+          runEnd++;
+        }
+        this.activeOutputChannel.append(this.s, pos, runEnd);
+        pos = runEnd;
+        if (mainText) {
+          startText();
+        }
+      } else {
+        // append looks ahead for multiple spaces
+        this.offs = ++pos;
+        if (candidate == '{') {
+          // the lexer only treats '{' with matching '}' as inline command
+          e("!!! No inline command end found!");
         } else {
-          out(' ');
+          // markup characters not used as markup are no start of text
+          if (mainText && candidate != '#' && candidate != '<' && candidate != '/' && candidate != '*' && candidate != '_') {
+            startText();
+          }
+          // might need to be replaced by entity
+          append(candidate);
         }
-        break;
-      case '"':
-        out("&quot;");
-        break;
-      // apos not supported by Java HTML?
-      //case '\'':
-      //  out("&apos;");
-      //  break;
-      case '&':
-        out("&amp;");
-        break;
-      case '<':
-        out("&lt;");
-        break;
-      case '>':
-        out("&gt;");
-        break;
-      case 'ü':
-        out("&uuml;");
-        break;
-      case 'Ü':
-        out("&Uuml;");
-        break;
-      case 'ö':
-        out("&ouml;");
-        break;
-      case 'Ö':
-        out("&Ouml;");
-        break;
-      case 'ä':
-        out("&auml;");
-        break;
-      case 'Ä':
-        out("&Auml;");
-        break;
-      case 'ß':
-        out("&szlig;");
-        break;
-      case LIST_CHAR:
-        out(BULLET);
-        break;
-      default:
-        out(cToAdd);
+      }
     }
+    this.offs = end;
   }
 
-  private void append(final String toAppend) {
-    // always start with a paragraph
+  private boolean isPlain(final char candidate) {
+    return candidate < PLAIN.length && PLAIN[candidate] && (candidate != ' ' || !this.spaceAsNonBreakableSpace);
+  }
+
+  private void startText() {
     if (StringUtils.isEmptyOrNull(this.ct)) {
       // first start of text
-      //out("<p " + this.currentAlignment + ">");
       this.ct = "<br>";
     }
+  }
+
+  private void appendEscaped(final int index) {
+    // escape character - add next as literal, nothing if '\' is the last character
+    final int contentStart = this.tokens.getContentStart(index);
+    if (contentStart < this.tokens.getContentEnd(index)) {
+      // might need to be replaced by entity
+      append(this.s.charAt(contentStart));
+    }
+  }
+
+  private void append(final String toAppend) {
+    // always start with a paragraph
+    //out("<p " + this.currentAlignment + ">");
+    startText();
     for (int i = 0; i < toAppend.length(); i++) {
       // escape character handling
       char candidate = toAppend.charAt(i);
@@ -698,10 +823,10 @@ public class SHtoHTML {
     this.lastTableMaxColumns = Math.max(this.lastTableMaxColumns, this.currentColumn);
   }
 
-  private void handleTab() {
+  private void handleTab(final int start) {
     if (this.tabAsTableState) {
       // only small padding in table cell for single bullet characters - why was this a good idea?
-      if (this.prevC == LIST_CHAR) {
+      if (this.s.charAt(start) == 9 && start > 0 && this.s.charAt(start - 1) == LIST_CHAR) {
         out(NBSP + getAndClearPendingTableCellEndTag() + "</td><td>");
       } else {
         out(TABLE_CELL_END_PAD + getAndClearPendingTableCellEndTag() + "</td><td>");
@@ -713,11 +838,8 @@ public class SHtoHTML {
       updateMaxTableColumns();
       out(getTableCellHTMLFontTag());
       // consume all following tabs - they have no semantic meaning
-      while (peekNextChar() == 9 || (peekNextChar() == '\\' && peekNextNextChar() == 't')) {
-        nextChar();
-        if (this.c != 9) {
-          nextChar();
-        }
+      while (this.tokenIndex < this.tokens.getTokenCount() && this.tokens.getType(this.tokenIndex) == SHTokenStream.TAB) {
+        this.offs = this.tokens.getEnd(this.tokenIndex++);
       }
     } else {
       // TODO are there TAB characters outside of "tabAsTableState" mode?
@@ -726,152 +848,121 @@ public class SHtoHTML {
   }
 
   /**
-   * Check if the given source string is a valid simple style run for the
-   * simple form of bold, underline and italic.
+   * Handles a simple style run like *bold* - the lexer already checked it is valid according to the rules laid
+   * down in "Strong, Italic and Underline".
    * 
-   * @param toCheck string to check.
-   * @return valid simple style run?
+   * @param index token index of style run.
    */
-  private static boolean isValidSimpleFontStyleRun(final String toCheck) {
-    if (StringUtils.isEmptyOrNull(toCheck)) {
-      // TODO can this ever happen?
-      return false;
-    }
-    for (int pos = 0; pos < toCheck.length(); pos++) {
-      char charToCheck = toCheck.charAt(pos);
-      // run must only consist of letters or spaces
-      if (!Character.isLetter(charToCheck) && charToCheck != ' ') {
-        return false;
-      }
-    }
-    // first character must be a letter
-    if (!Character.isLetter(toCheck.charAt(0))) {
-      return false;
-    }
-    // last character must be a letter
-    if (!Character.isLetter(toCheck.charAt(toCheck.length() - 1))) {
-      return false;
-    }
-    return true;
-  }
-
-  private void underline() {
-    handleFontStyle('_', "<u>", "</u>");
-  }
-
-  private void bold() {
-    handleFontStyle('*', "<b>", "</b>");
-  }
-
-  private void italic() {
-    handleFontStyle('/', "<i>", "</i>");
-  }
-
-  private void handleFontStyle(final char marker, final String startTag, final String endTag) {
-    final int end = this.s.indexOf(marker, this.offs);
-    if (end != -1) {
-      // we have to check that all characters between the starting marker and the ending marker should
-      // actually be styled according to the rules laid down in "Strong, Italic and Underline"
-      final String possiblyStyledText = this.s.substring(this.offs, end);
-      if (isValidSimpleFontStyleRun(possiblyStyledText)) {
-        out(startTag);
-        append(possiblyStyledText);
-        out(endTag);
-        this.offs = end + 1;
-      } else {
-        out(marker);
-      }
-    } else {
-      // no end found, so surely just "add plain character"
-      out(marker);
+  private void handleFontStyle(final int index) {
+    final String startTag;
+    final String endTag;
+    switch (this.s.charAt(this.tokens.getStart(index))) {
+      case '*':
+        startTag = "<b>";
+        endTag = "</b>";
+        break;
+      case '_':
+        startTag = "<u>";
+        endTag = "</u>";
+        break;
+      default:
+        startTag = "<i>";
+        endTag = "</i>";
     }
+    // spaces inside the run are never doubled, so append looks ahead from the start of the run
+    final int end = this.offs;
+    this.offs = this.tokens.getContentStart(index);
+    out(startTag);
+    append(this.tokens.getContent(index));
+    out(endTag);
+    this.offs = end;
   }
 
   // TODO fusion with parseCommands and/or table font style handling
-  private void inlineCommand() {
-    final int endCommand = this.s.indexOf('}', this.offs);
-    if (endCommand >= 0) {
-      final String inlineCommand = this.s.substring(this.offs, endCommand);
-      //d("Inline command parsed: >" + command + "<");
-      this.offs += inlineCommand.length() + 1;
-      final String[] commands = StringUtils.split(inlineCommand, ";", true);
-      for (final String command : commands) {
-        if (command.equals("/")) {
-          toggleItalic();
-        } else if (command.equals("_")) {
-          toggleUnderline();
-        } else if (command.equals("*")) {
-          toggleBold();
-        } else if (StringUtils.startsWithIgnoreCase(command, "f")) {
-          // various forms - fxx: - use font xx for the text following the colon
-          //                 f - switch back to standard font
-          //                 fxx - use font xx until switched back to standard
-          final int endFontIndex = command.indexOf(':');
-          if (endFontIndex > 0) {
-            final String fontToUse = command.substring(1, endFontIndex);
-            final String text = command.substring(endFontIndex + 1);
-            if (fontToUse.equalsIgnoreCase("code")) {
-              out("<code>");
-              setSpaceAsNonBreakableSpace(true);
-              append(text);
-              setSpaceAsNonBreakableSpace(false);
-              out("</code>");
-            } else if (fontToUse.equalsIgnoreCase("std")) {
-                append(text);
-            } else if (StringUtils.startsWithIgnoreCase("h", fontToUse) && fontToUse.length() == 2) {
-              // directly use h1..h6
-              out("<" + fontToUse + ">");
-              append(text);
-              out("</" + fontToUse + ">\n");
-            } else if (fontToUse.equalsIgnoreCase("*")) {
-              out("<b>");
-              append(text);
-              out("</b>");
-            } else if (fontToUse.equalsIgnoreCase("_")) {
-              out("<u>");
-              append(text);
-              out("</u>");
-            } else if (fontToUse.equalsIgnoreCase("/")) {
-              out("<i>");
-              append(text);
-              out("</i>");
-            } else {
-              // TODO correct font handling for configured styles
-              // use span tag
-              out("<span id=\"+style_"+fontToUse+"\">");
-              append(text);
-              out("</span>");
-            }
-          } else if (command.equalsIgnoreCase("fcode")) {
+  private void inlineCommand(final String inlineCommand) {
+    //d("Inline command parsed: >" + inlineCommand + "<");
+    final int length = inlineCommand.length();
+    int partStart = 0;
+    while (partStart < length) {
+      int partEnd = inlineCommand.indexOf(';', partStart);
+      if (partEnd < 0) {
+        partEnd = length;
+      }
+      final String command = inlineCommand.substring(partStart, partEnd).trim();
+      partStart = partEnd + 1;
+      if (command.equals("/")) {
+        toggleItalic();
+      } else if (command.equals("_")) {
+        toggleUnderline();
+      } else if (command.equals("*")) {
+        toggleBold();
+      } else if (Command.match(command) == Command.F) {
+        // various forms - fxx: - use font xx for the text following the colon
+        //                 f - switch back to standard font
+        //                 fxx - use font xx until switched back to standard
+        final int endFontIndex = command.indexOf(':');
+        if (endFontIndex > 0) {
+          final String fontToUse = command.substring(1, endFontIndex);
+          final String text = command.substring(endFontIndex + 1);
+          if (fontToUse.equalsIgnoreCase("code")) {
             out("<code>");
             setSpaceAsNonBreakableSpace(true);
-            this.pendingEndTag = "</code>";
-          } else if (command.equalsIgnoreCase("f*")) {
+            append(text);
+            setSpaceAsNonBreakableSpace(false);
+            out("</code>");
+          } else if (fontToUse.equalsIgnoreCase("std")) {
+              append(text);
+          } else if (StringUtils.startsWithIgnoreCase("h", fontToUse) && fontToUse.length() == 2) {
+            // directly use h1..h6
+            out("<" + fontToUse + ">");
+            append(text);
+            out("</" + fontToUse + ">\n");
+          } else if (fontToUse.equalsIgnoreCase("*")) {
             out("<b>");
-            this.pendingEndTag = "</b>";
-          } else if (command.equalsIgnoreCase("f_")) {
+            append(text);
+            out("</b>");
+          } else if (fontToUse.equalsIgnoreCase("_")) {
             out("<u>");
-            this.pendingEndTag = "</u>";
-          } else if (command.equalsIgnoreCase("f/")) {
+            append(text);
+            out("</u>");
+          } else if (fontToUse.equalsIgnoreCase("/")) {
             out("<i>");
-            this.pendingEndTag = "</i>";
-          } else if (command.equalsIgnoreCase("f")) {
-            // reset to standard font
-            writePendingEndTag();
-          }
-        } else if (StringUtils.startsWithIgnoreCase(command, "align")) {
-          final String parameter = command.substring(5).trim();
-          handleAlignment(parameter);
-        } else {
-          // unknown?
-          d("Unidentified inline command: " + command);
-          if (DEBUG) {
-            out("{" + command + "}");
+            append(text);
+            out("</i>");
+          } else {
+            // TODO correct font handling for configured styles
+            // use span tag
+            out("<span id=\"+style_"+fontToUse+"\">");
+            append(text);
+            out("</span>");
           }
+        } else if (command.equalsIgnoreCase("fcode")) {
+          out("<code>");
+          setSpaceAsNonBreakableSpace(true);
+          this.pendingEndTag = "</code>";
+        } else if (command.equalsIgnoreCase("f*")) {
+          out("<b>");
+          this.pendingEndTag = "</b>";
+        } else if (command.equalsIgnoreCase("f_")) {
+          out("<u>");
+          this.pendingEndTag = "</u>";
+        } else if (command.equalsIgnoreCase("f/")) {
+          out("<i>");
+          this.pendingEndTag = "</i>";
+        } else if (command.equalsIgnoreCase("f")) {
+          // reset to standard font
+          writePendingEndTag();
+        }
+      } else if (Command.match(command) == Command.ALIGN) {
+        final String parameter = command.substring(5).trim();
+        handleAlignment(parameter);
+      } else {
+        // unknown?
+        d("Unidentified inline command: " + command);
+        if (DEBUG) {
+          out("{" + command + "}");
         }
       }
-    } else {
-      e("!!! No inline command end found!");
     }
   }
 
@@ -962,199 +1053,207 @@ public class SHtoHTML {
     }
   }
 
-  private void parseCommands() {
-    final String line = line(); // offs automatically adjusted
-    if (line.startsWith(" ")) {
-      addComment(line);
-    } else {
-      boolean tabCommandState = false;
-      // there might be multiple commands separated by ";"
-      d("Command detected: "+line);
-      final String[] commands = StringUtils.split(line, ";", true);
-      for (final String t : commands) {
-        d("Iterating...command: " + t);
-        if (StringUtils.startsWithIgnoreCase(t, "f")) {
-          // various forms - fxx: - use font xx for the text following the colon
-          //                 f - switch back to standard font
-          //                 fxx - use font xx until switched back to standard
-          // special predefined styles like fcode and fh1 are translated into their direct
-          // HTML counterparts.
-          final int endFontIndex = t.indexOf(':');
-          if (endFontIndex > 0) {
-            // text to write follows font to choose
-            final String fontToUse = t.substring(1, endFontIndex);
-            final String text = t.substring(endFontIndex + 1);
-            // directly use code, h1..h6, bold/italic/underline
-            if (fontToUse.equalsIgnoreCase("code")) {
-              out("<code>");
-              setSpaceAsNonBreakableSpace(true);
-              append(text);
-              setSpaceAsNonBreakableSpace(false);
-              out("</code>");
-            } else if (StringUtils.startsWithIgnoreCase(fontToUse, "h") && fontToUse.length() == 2) {
-              out("<" + fontToUse + ">");
-              append(text);
-              out("</" + fontToUse + ">\n");
-            } else {
-              // use span to support font style
-              out("<span id=\"+style_"+fontToUse+"\">");
-              append(text);
-              out("</span>");
-              d("special font/style using span: >" + fontToUse + "<");
-            }
-          } else if (t.equalsIgnoreCase("fcode")) {
+  /**
+   * Handles a command line - the line is already consumed, but commands like #subpage might consume following lines.
+   * 
+   * @param line command line, without '#' and line feed.
+   */
+  private void parseCommands(final String line) {
+    boolean tabCommandState = false;
+    // there might be multiple commands separated by ";"
+    d("Command detected: "+line);
+    final int length = line.length();
+    int partStart = 0;
+    while (partStart < length) {
+      int partEnd = line.indexOf(';', partStart);
+      if (partEnd < 0) {
+        partEnd = length;
+      }
+      final String t = line.substring(partStart, partEnd).trim();
+      partStart = partEnd + 1;
+      d("Iterating...command: " + t);
+      final Command command = Command.match(t);
+      if (command == Command.F) {
+        // various forms - fxx: - use font xx for the text following the colon
+        //                 f - switch back to standard font
+        //                 fxx - use font xx until switched back to standard
+        // special predefined styles like fcode and fh1 are translated into their direct
+        // HTML counterparts.
+        final int endFontIndex = t.indexOf(':');
+        if (endFontIndex > 0) {
+          // text to write follows font to choose
+          final String fontToUse = t.substring(1, endFontIndex);
+          final String text = t.substring(endFontIndex + 1);
+          // directly use code, h1..h6, bold/italic/underline
+          if (fontToUse.equalsIgnoreCase("code")) {
             out("<code>");
             setSpaceAsNonBreakableSpace(true);
-            this.pendingEndTag = "</code>";
-          } else if (t.equalsIgnoreCase("f")) {
-            // reset to standard/previous font TODO support proper font stack
-            writePendingEndTag();
-          } else if (StringUtils.startsWithIgnoreCase(t, "fh") && t.length() == 3) {
-            // h1..h6 (no error checking, could also be hx or h9...)
-            out("<" + t.substring(1) + ">");
-            this.pendingEndTag = "</" + t.substring(1) + ">";
+            append(text);
+            setSpaceAsNonBreakableSpace(false);
+            out("</code>");
+          } else if (StringUtils.startsWithIgnoreCase(fontToUse, "h") && fontToUse.length() == 2) {
+            out("<" + fontToUse + ">");
+            append(text);
+            out("</" + fontToUse + ">\n");
           } else {
             // use span to support font style
-            // TODO support physical fonts also?
-            final String fontToUse = t.substring(1);
-            this.usedStyles.add("style_" + fontToUse);
             out("<span id=\"+style_"+fontToUse+"\">");
-            this.pendingEndTag = "</span>";
+            append(text);
+            out("</span>");
+            d("special font/style using span: >" + fontToUse + "<");
           }
-        } else if (StringUtils.startsWithIgnoreCase(t, "line")) {
-          final String parameter = t.substring(4).trim();
-          if (StringUtils.isEmptyOrNull(parameter)) {
+        } else if (t.equalsIgnoreCase("fcode")) {
+          out("<code>");
+          setSpaceAsNonBreakableSpace(true);
+          this.pendingEndTag = "</code>";
+        } else if (t.equalsIgnoreCase("f")) {
+          // reset to standard/previous font TODO support proper font stack
+          writePendingEndTag();
+        } else if (StringUtils.startsWithIgnoreCase(t, "fh") && t.length() == 3) {
+          // h1..h6 (no error checking, could also be hx or h9...)
+          out("<" + t.substring(1) + ">");
+          this.pendingEndTag = "</" + t.substring(1) + ">";
+        } else {
+          // use span to support font style
+          // TODO support physical fonts also?
+          final String fontToUse = t.substring(1);
+          this.usedStyles.add("style_" + fontToUse);
+          out("<span id=\"+style_"+fontToUse+"\">");
+          this.pendingEndTag = "</span>";
+        }
+      } else if (command == Command.LINE) {
+        final String parameter = t.substring(4).trim();
+        if (StringUtils.isEmptyOrNull(parameter)) {
+          outHorizontalLine();
+        } else {
+          try {
+            int percentage = Integer.parseInt(parameter);
+            outHorizontalLineWithPercentageWidth(percentage);
+          } catch (final NumberFormatException nfe) {
             outHorizontalLine();
-          } else {
-            try {
-              int percentage = Integer.parseInt(parameter);
-              outHorizontalLineWithPercentageWidth(percentage);
-            } catch (final NumberFormatException nfe) {
-              outHorizontalLine();
-            }
-          }
-        } else if (StringUtils.startsWithIgnoreCase(t, "align")) {
-          final String parameter = t.substring(5).trim();
-          handleAlignment(parameter);
-        } else if (StringUtils.startsWithIgnoreCase(t, "subpage")) {
-          // close table if still active
-          if (this.tabAsTableState) {
-            endTable();
           }
-          // separate clearly with double horizontal rule
-          out("<hr>\n<hr>\n");
-          // read title and insert
-          String title = line();
-          out(SUBPAGE_TITLE_START + title + SUBPAGE_TITLE_END + "\n");
-          // add named link for navigation
-          final String parameter = t.substring(7).trim().toLowerCase();
-          out("<a name=\"" + parameter + "\"></a>\n");
-        } else if (StringUtils.startsWithIgnoreCase(t, "tag")) {
-          final String parameter = t.substring(3).trim();
-          out("<a name=\"" + parameter + "\"></a>");
-          this.listOfNamedTags.add(parameter);
-        } else if (StringUtils.startsWithIgnoreCase(t, "below")) {
-          // should we support "below", and how?
-          d("Command ignored: #below");
-        } else if (StringUtils.startsWithIgnoreCase(t, "bottom")) {
-          // this aligns content to the bottom, impossible in simple HTML
-          d("Command ignored: #bottom");
-        } else if (StringUtils.startsWithIgnoreCase(t, "draw")) {
-          // TODO support draw files
-          d("Command ignored: #draw");
-        } else if (StringUtils.startsWithIgnoreCase(t, "indent")) {
-          // TODO indent is currently faked with non-breakable spaces
-          // try to use CSS margin-left as an alternative
-          final String parameter = t.substring(6).trim();
-          if (StringUtils.isEmptyOrNull(parameter)) {
+        }
+      } else if (command == Command.ALIGN) {
+        final String parameter = t.substring(5).trim();
+        handleAlignment(parameter);
+      } else if (command == Command.SUBPAGE) {
+        // close table if still active
+        if (this.tabAsTableState) {
+          endTable();
+        }
+        // separate clearly with double horizontal rule
+        out("<hr>\n<hr>\n");
+        // read title and insert
+        String title = line();
+        out(SUBPAGE_TITLE_START + title + SUBPAGE_TITLE_END + "\n");
+        // add named link for navigation
+        final String parameter = t.substring(7).trim().toLowerCase();
+        out("<a name=\"" + parameter + "\"></a>\n");
+      } else if (command == Command.TAG) {
+        final String parameter = t.substring(3).trim();
+        out("<a name=\"" + parameter + "\"></a>");
+        this.listOfNamedTags.add(parameter);
+      } else if (command == Command.BELOW) {
+        // should we support "below", and how?
+        d("Command ignored: #below");
+      } else if (command == Command.BOTTOM) {
+        // this aligns content to the bottom, impossible in simple HTML
+        d("Command ignored: #bottom");
+      } else if (command == Command.DRAW) {
+        // TODO support draw files
+        d("Command ignored: #draw");
+      } else if (command == Command.INDENT) {
+        // TODO indent is currently faked with non-breakable spaces
+        // try to use CSS margin-left as an alternative
+        final String parameter = t.substring(6).trim();
+        if (StringUtils.isEmptyOrNull(parameter)) {
+          this.currentIndent = 0;
+        } else {
+          try {
+            this.currentIndent = (parameter.charAt(0) == '+') ? this.currentIndent + Integer.parseInt(parameter)
+                : Integer.parseInt(parameter);
+          } catch (final Exception ex) {
+            // reset indent
             this.currentIndent = 0;
-          } else {
-            try {
-              this.currentIndent = (parameter.charAt(0) == '+') ? this.currentIndent + Integer.parseInt(parameter)
-                  : Integer.parseInt(parameter);
-            } catch (final Exception ex) {
-              // reset indent
-              this.currentIndent = 0;
-            }
-          }
-        } else if (StringUtils.startsWithIgnoreCase(t, "spritefile")) {
-          // TODO defines a spritefile, might be squashed
-          d("Command ignored: #spritefile");
-        } else if (StringUtils.startsWithIgnoreCase(t, "sprite")) {
-          // TODO uses a sprite from a previously defined spritefile, might be squashed
-          d("Command ignored: #sprite");
-        } else if (StringUtils.startsWithIgnoreCase(t, "prefix")) {
-          final String parameter = t.substring(6).trim();
-          this.currentPrefix = parameter;
-        } else if (StringUtils.startsWithIgnoreCase(t, "postfix")) {
-          final String parameter = t.substring(7).trim();
-          this.currentPostfix = parameter;
-        } else if (StringUtils.startsWithIgnoreCase(t, "table")) {
-          final String parameter = t.substring(5).trim();
-          if (this.tabAsTableState) {
-            endTable();
           }
-          handleTable(parameter);
-        } else if (StringUtils.startsWithIgnoreCase(t, "tab")) {
-          tabCommandState = true;
-          // check for special font formats in tab definition
-          final String parameter = t.substring(3).trim();
-          setFontFormatForColumns(parameter);
-          // TODO is the following still needed? Wouldn't simple "end table if we are in table" suffice?
-          if (this.tabAsTableState) {
-            endTable();
-            if (peekNextLineForTab()) {
-              beginTable();
-            }
-          } else {
-            if (peekNextLineForTab()) {
-              beginTable();
-            }
-          }
-        } else if (StringUtils.startsWithIgnoreCase(t, "wrap")) {
-          // On = wrap line to fit window (lines are joined if not separated by blank line or #command line
-          // Off = no wrap, no join - always wrap on encountering LF
-          // NoJoin = wrap, but don't join
-          final String parameter = t.substring(4).trim();
-          if ("on".equalsIgnoreCase(parameter)) {
-            this.previousWrapMode = this.activeWrapMode;
-            this.activeWrapMode = WrapMode.On;
-          } else if ("off".equalsIgnoreCase(parameter)) {
-            // TODO not properly implemented...
-            this.previousWrapMode = this.activeWrapMode;
-            this.activeWrapMode = WrapMode.Off;
-          } else if ("nojoin".equalsIgnoreCase(parameter)) {
-            this.previousWrapMode = this.activeWrapMode;
-            this.activeWrapMode = WrapMode.NoJoin;
-          } else if (StringUtils.isEmptyOrNull(parameter)) {
-            this.activeWrapMode = this.previousWrapMode;
+        }
+      } else if (command == Command.SPRITEFILE) {
+        // TODO defines a spritefile, might be squashed
+        d("Command ignored: #spritefile");
+      } else if (command == Command.SPRITE) {
+        // TODO uses a sprite from a previously defined spritefile, might be squashed
+        d("Command ignored: #sprite");
+      } else if (command == Command.PREFIX) {
+        final String parameter = t.substring(6).trim();
+        this.currentPrefix = parameter;
+      } else if (command == Command.POSTFIX) {
+        final String parameter = t.substring(7).trim();
+        this.currentPostfix = parameter;
+      } else if (command == Command.TABLE) {
+        final String parameter = t.substring(5).trim();
+        if (this.tabAsTableState) {
+          endTable();
+        }
+        handleTable(parameter);
+      } else if (command == Command.TAB) {
+        tabCommandState = true;
+        // check for special font formats in tab definition
+        final String parameter = t.substring(3).trim();
+        setFontFormatForColumns(parameter);
+        // TODO is the following still needed? Wouldn't simple "end table if we are in table" suffice?
+        if (this.tabAsTableState) {
+          endTable();
+          if (peekNextLineForTab()) {
+            beginTable();
           }
-        } else if (StringUtils.startsWithIgnoreCase(t, "root")) {
-          this.rootPage = t.substring(4).trim();
-        } else if (StringUtils.startsWithIgnoreCase(t, "parent")) {
-          this.parentPage = t.substring(6).trim();
-        } else if (StringUtils.startsWithIgnoreCase(t, "background")) {
-          this.pageFontConfig.setBackgroundColourStr(t.substring(10).trim());
         } else {
-          e("Unknown command encountered:" + t);
-          if (DEBUG) {
-            out("#");
-            append(t);
-            out("<br>\n");
+          if (peekNextLineForTab()) {
+            beginTable();
           }
         }
+      } else if (command == Command.WRAP) {
+        // On = wrap line to fit window (lines are joined if not separated by blank line or #command line
+        // Off = no wrap, no join - always wrap on encountering LF
+        // NoJoin = wrap, but don't join
+        final String parameter = t.substring(4).trim();
+        if ("on".equalsIgnoreCase(parameter)) {
+          this.previousWrapMode = this.activeWrapMode;
+          this.activeWrapMode = WrapMode.On;
+        } else if ("off".equalsIgnoreCase(parameter)) {
+          // TODO not properly implemented...
+          this.previousWrapMode = this.activeWrapMode;
+          this.activeWrapMode = WrapMode.Off;
+        } else if ("nojoin".equalsIgnoreCase(parameter)) {
+          this.previousWrapMode = this.activeWrapMode;
+          this.activeWrapMode = WrapMode.NoJoin;
+        } else if (StringUtils.isEmptyOrNull(parameter)) {
+          this.activeWrapMode = this.previousWrapMode;
+        }
+      } else if (command == Command.ROOT) {
+        this.rootPage = t.substring(4).trim();
+      } else if (command == Command.PARENT) {
+        this.parentPage = t.substring(6).trim();
+      } else if (command == Command.BACKGROUND) {
+        this.pageFontConfig.setBackgroundColourStr(t.substring(10).trim());
+      } else {
+        e("Unknown command encountered:" + t);
+        if (DEBUG) {
+          out("#");
+          append(t);
+          out("<br>\n");
+        }
       }
+    }
 
-      // post-command processing
-      // we have consumed the final LF also, so explicitly check for a tabbed line next if we are not in tab command
-      if (!tabCommandState && !this.tabAsTableState && peekNextLineForTab()) {
-        beginTable();
-      } else if (peekNextChar() != '#') {
-        // next line is not again a command, so we need to indent, but only if not a table
-        if (!this.tabAsTableState) {
-          // d("End of command >"+line+"<, next line has no command, outputting nbsp to indent next line");
-          out(getIndentString());
-        }
+    // post-command processing
+    // we have consumed the final LF also, so explicitly check for a tabbed line next if we are not in tab command
+    if (!tabCommandState && !this.tabAsTableState && peekNextLineForTab()) {
+      beginTable();
+    } else if (peekNextChar() != '#') {
+      // next line is not again a command, so we need to indent, but only if not a table
+      if (!this.tabAsTableState) {
+        // d("End of command >"+line+"<, next line has no command, outputting nbsp to indent next line");
+        out(getIndentString());
       }
     }
   }
@@ -1164,6 +1263,7 @@ public class SHtoHTML {
    */
   private void beginTable() {
     this.tabAsTableState = true;
+    this.currentTableStartOffset = this.activeOutputChannel.length();
     out("<table" + TABLE_PARAMS + ">\n<tr" + TABLE_ROW_PARAMS + ">\n<td");
     this.currentColumn = 0;
     this.lastTableMaxColumns = 0;
@@ -1192,6 +1292,10 @@ public class SHtoHTML {
     String line = line();
     while (!"#endtable".equalsIgnoreCase(line)) {
       data.add(line);
+      if (this.offs >= this.s.length()) {
+        e("No #endtable found!");
+        break;
+      }
       line = line();
     }
     int noOfColumns = 0;
@@ -1241,21 +1345,17 @@ public class SHtoHTML {
     out("</table>\n");
   }
 
-  private void parseLink() {
+  private void parseLink(final int index) {
     // links are of form <Text=>Link Target> or <DirectLink>
     // external urls are of form <Text=>#URL url>
     // or even <TextThatIsAnURL=>#url>
     // we used to create fake URLs for internal targets with ftp protocol, but not anymore
     // TODO proper solution for internal links - why not localhost with a meaningful path?
     // why not relative links with ../?
-    final int endText = this.s.indexOf("=>", this.offs);
-    final int possibleEndLink = this.s.indexOf(">", this.offs);
-    int endLink = possibleEndLink;
-    if (endText == possibleEndLink - 1) {
+    if (this.tokens.isLinkWithText(index)) {
       // complex form <Text=>Link>
-      endLink = this.s.indexOf('>', endText + 2);
-      String url = this.s.substring(endText + 2, endLink);
-      String text = getFragment(this.s.substring(this.offs, endText));
+      String url = this.tokens.getLinkTarget(index);
+      String text = getFragment(this.tokens.getLinkText(index));
       if (StringUtils.startsWithIgnoreCase(url, "#url ")) {
         url = url.substring(5);
       } else if (url.equalsIgnoreCase("#url")) {
@@ -1267,22 +1367,17 @@ public class SHtoHTML {
       out(getLinkTag(url, text));
     } else {
       // easy form <Link>
-      String text = this.s.substring(this.offs, endLink);
-      String link = text;
+      String text = this.tokens.getContent(index);
       // by observation (Basalt): Links get a cut off by e.g. space
-      if (link.indexOf(' ') > 0) {
-        link = link.substring(0, link.indexOf(' '));
-      }
+      String link = this.tokens.getLinkTarget(index);
       String url = FAKE_PROTOCOL + this.currentPrefix + link + this.currentPostfix;
       out(getLinkTag(toFileLink(url), text));
     }
     //out("\n");
-    this.offs = endLink + 1;
   }
 
   private void addComment(final String comment) {
     out("<!--" + comment + " -->\n");
-    // offset already adjusted in line() call from parseCommands
   }
 
   private void list() {
@@ -1291,7 +1386,7 @@ public class SHtoHTML {
     this.offs--;
     do {
       // skip list char itself
-      nextChar();
+      this.offs++;
       out("<li>");
       // mini-parse like table lines
       String source = line().trim();
@@ -1305,16 +1400,14 @@ public class SHtoHTML {
   }
 
   private String line() {
-    final StringBuilder line = new StringBuilder();
-    while (this.offs < this.s.length() && this.s.charAt(this.offs) != 10) {
-      nextChar();
-      line.append(this.c);
+    final int start = this.offs;
+    int end = start;
+    while (end < this.s.length() && this.s.charAt(end) != 10) {
+      end++;
     }
     // also skip following newline
-    if (this.offs < this.s.length() && this.s.charAt(this.offs) == 10) {
-      nextChar();
-    }
-    return line.toString();
+    this.offs = end < this.s.length() ? end + 1 : end;
+    return this.s.subSequence(start, end).toString();
   }
 
   /**
@@ -1360,9 +1453,7 @@ public class SHtoHTML {
   }
 
   private static void d(final String s) {
-    if (DEBUG) {
-      DEBUG_CHANNEL.println(s);
-    }
+    StrongHelp.d(s);
   }
 
   private static void e(final String s) {
@@ -0,0 +1,708 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.imagefile;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.hubersn.riscos.util.fs.LoadExec;
+import com.hubersn.util.memory.Memory;
+
+/**
+ * Compact representation of the complete directory structure of a StrongHelp image file -
+ * in contrast to the SHIDir/SHIFile/SHILink object tree, all entries are kept in a fixed
+ * number of primitive arrays indexed by entry number, with all names in one shared name pool.
+ * Entries are accessed via a flyweight Cursor. Entry 0 is always the root directory.
+ * <p>
+ * Lookups follow the same rules as SHIDir.getEntry: case-insensitive by name or lookup name,
+ * direct children first, then pre-order through all subdirectories. They are answered by two
+ * open-addressing hash tables over the case-folded name hashes - one for the children of every
+ * directory, one for the whole tree - so no strings are built for a lookup.
+ */
+public class SHICompactTree {
+
+  /** Entry index of the root directory. */
+  public static final int ROOT = 0;
+
+  /** Entry index returned if no entry is found. */
+  public static final int NOT_FOUND = -1;
+
+  private static final byte KIND_DIR = 0;
+
+  private static final byte KIND_FILE = 1;
+
+  private static final byte KIND_LINK = 2;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private int count;
+
+  private byte[] kind = new byte[INITIAL_CAPACITY];
+
+  private int[] parent = new int[INITIAL_CAPACITY];
+
+  private int[] firstChild = new int[INITIAL_CAPACITY];
+
+  private int[] lastChild = new int[INITIAL_CAPACITY];
+
+  private int[] nextSibling = new int[INITIAL_CAPACITY];
+
+  private int[] offset = new int[INITIAL_CAPACITY];
+
+  private int[] length = new int[INITIAL_CAPACITY];
+
+  private int[] load = new int[INITIAL_CAPACITY];
+
+  private int[] exec = new int[INITIAL_CAPACITY];
+
+  /** Start of stored name in name pool. */
+  private int[] nameStart = new int[INITIAL_CAPACITY];
+
+  /** Length of name without link target. */
+  private int[] nameLength = new int[INITIAL_CAPACITY];
+
+  /** Length of stored name, including link target for links. */
+  private int[] storedNameLength = new int[INITIAL_CAPACITY];
+
+  /** Hash of case-folded name. */
+  private int[] nameHash = new int[INITIAL_CAPACITY];
+
+  /** Hash of case-folded lookup name, i.e. the names of all ancestors below root and the name. */
+  private int[] lookupNameHash = new int[INITIAL_CAPACITY];
+
+  private char[] namePool = new char[INITIAL_CAPACITY * 16];
+
+  private int namePoolSize;
+
+  /** Entry index + 1 by hash of parent and name or lookup name, 0 for free slots - null if not yet built. */
+  private int[] childTable;
+
+  /** Entry index + 1 by hash of name or lookup name in search order, 0 for free slots - null if not yet built. */
+  private int[] globalTable;
+
+  /**
+   * Creates a new instance of SHICompactTree with just the root directory.
+   * 
+   * @param rootName name of root directory.
+   * @param rootOffset byte offset of root directory into source image file binary.
+   * @param rootLoadExec RISC OS load/exec pair of root directory.
+   */
+  public SHICompactTree(final String rootName, final int rootOffset, final LoadExec rootLoadExec) {
+    addEntry(NOT_FOUND, KIND_DIR, rootName, rootOffset, 0, rootLoadExec.getLoadAddr(), rootLoadExec.getExecAddr());
+  }
+
+  private SHICompactTree() {
+    // for read only
+  }
+
+  /**
+   * Writes the complete tree to the given stream as one block per array, so that it can be read
+   * back by bulk copies.
+   * 
+   * @param dos target stream.
+   * @throws IOException on errors writing.
+   */
+  void write(final DataOutputStream dos) throws IOException {
+    dos.writeInt(this.count);
+    dos.writeInt(this.namePoolSize);
+    dos.write(this.kind, 0, this.count);
+    for (final int[] array : getIntArrays()) {
+      for (int i = 0; i < this.count; i++) {
+        dos.writeInt(array[i]);
+      }
+    }
+    for (int i = 0; i < this.namePoolSize; i++) {
+      dos.writeChar(this.namePool[i]);
+    }
+  }
+
+  /**
+   * Reads a tree as written by write from the given data, starting at its position - the
+   * position is moved behind the tree.
+   * 
+   * @param data big-endian source data, e.g. a mapped file.
+   * @return complete tree, ready for lookups.
+   */
+  static SHICompactTree read(final ByteBuffer data) {
+    final SHICompactTree tree = new SHICompactTree();
+    tree.count = data.getInt();
+    tree.namePoolSize = data.getInt();
+    tree.grow(tree.count);
+    data.get(tree.kind);
+    for (final int[] array : tree.getIntArrays()) {
+      data.asIntBuffer().get(array);
+      data.position(data.position() + 4 * tree.count);
+    }
+    tree.namePool = new char[tree.namePoolSize];
+    data.asCharBuffer().get(tree.namePool);
+    data.position(data.position() + 2 * tree.namePoolSize);
+    tree.buildLookupTables();
+    return tree;
+  }
+
+  private int[][] getIntArrays() {
+    return new int[][] {this.parent, this.firstChild, this.lastChild, this.nextSibling, this.offset, this.length,
+                        this.load, this.exec, this.nameStart, this.nameLength, this.storedNameLength, this.nameHash, this.lookupNameHash};
+  }
+
+  /**
+   * Adds a directory as last child of the given directory.
+   * 
+   * @param dirIndex entry index of parent directory.
+   * @param name name of directory.
+   * @param dirOffset byte offset into source image file binary.
+   * @param loadAddr RISC OS load address.
+   * @param execAddr RISC OS exec address.
+   * @return entry index of new directory.
+   */
+  public int addDir(final int dirIndex, final String name, final int dirOffset, final long loadAddr, final long execAddr) {
+    return addEntry(dirIndex, KIND_DIR, name, dirOffset, 0, loadAddr, execAddr);
+  }
+
+  /**
+   * Adds a file as last child of the given directory.
+   * 
+   * @param dirIndex entry index of parent directory.
+   * @param name name of file.
+   * @param fileOffset byte offset into source image file binary.
+   * @param fileLength length of file in bytes.
+   * @param loadAddr RISC OS load address.
+   * @param execAddr RISC OS exec address.
+   * @return entry index of new file.
+   */
+  public int addFile(final int dirIndex, final String name, final int fileOffset, final int fileLength, final long loadAddr, final long execAddr) {
+    return addEntry(dirIndex, KIND_FILE, name, fileOffset, fileLength, loadAddr, execAddr);
+  }
+
+  /**
+   * Adds a link as last child of the given directory.
+   * 
+   * @param dirIndex entry index of parent directory.
+   * @param storedName name of link in the form "name&gt;target".
+   * @param loadAddr RISC OS load address.
+   * @param execAddr RISC OS exec address.
+   * @return entry index of new link.
+   */
+  public int addLink(final int dirIndex, final String storedName, final long loadAddr, final long execAddr) {
+    return addEntry(dirIndex, KIND_LINK, storedName, -1, 0, loadAddr, execAddr);
+  }
+
+  private int addEntry(final int dirIndex, final byte entryKind, final String name, final int entryOffset, final int entryLength, final long loadAddr, final long execAddr) {
+    if (this.count == this.kind.length) {
+      grow(this.count * 2);
+    }
+    final int index = this.count++;
+    this.kind[index] = entryKind;
+    this.parent[index] = dirIndex;
+    this.firstChild[index] = NOT_FOUND;
+    this.lastChild[index] = NOT_FOUND;
+    this.nextSibling[index] = NOT_FOUND;
+    this.offset[index] = entryOffset;
+    this.length[index] = entryLength;
+    this.load[index] = (int) loadAddr;
+    this.exec[index] = (int) execAddr;
+    if (this.namePoolSize + name.length() > this.namePool.length) {
+      this.namePool = Arrays.copyOf(this.namePool, Math.max(this.namePool.length * 2, this.namePoolSize + name.length()));
+    }
+    name.getChars(0, name.length(), this.namePool, this.namePoolSize);
+    this.nameStart[index] = this.namePoolSize;
+    this.storedNameLength[index] = name.length();
+    final int linkIndex = entryKind == KIND_LINK ? name.indexOf('>') : -1;
+    this.nameLength[index] = linkIndex > 0 ? linkIndex : name.length();
+    this.namePoolSize += name.length();
+    this.nameHash[index] = hash(0, this.namePool, this.nameStart[index], this.nameLength[index]);
+    this.lookupNameHash[index] = dirIndex <= ROOT ? this.nameHash[index]
+                                                  : hash(this.lookupNameHash[dirIndex], this.namePool, this.nameStart[index], this.nameLength[index]);
+    this.childTable = null;
+    this.globalTable = null;
+    if (dirIndex != NOT_FOUND) {
+      if (this.lastChild[dirIndex] == NOT_FOUND) {
+        this.firstChild[dirIndex] = index;
+      } else {
+        this.nextSibling[this.lastChild[dirIndex]] = index;
+      }
+      this.lastChild[dirIndex] = index;
+    }
+    return index;
+  }
+
+  private void grow(final int capacity) {
+    this.kind = Arrays.copyOf(this.kind, capacity);
+    this.parent = Arrays.copyOf(this.parent, capacity);
+    this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+    this.lastChild = Arrays.copyOf(this.lastChild, capacity);
+    this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+    this.offset = Arrays.copyOf(this.offset, capacity);
+    this.length = Arrays.copyOf(this.length, capacity);
+    this.load = Arrays.copyOf(this.load, capacity);
+    this.exec = Arrays.copyOf(this.exec, capacity);
+    this.nameStart = Arrays.copyOf(this.nameStart, capacity);
+    this.nameLength = Arrays.copyOf(this.nameLength, capacity);
+    this.storedNameLength = Arrays.copyOf(this.storedNameLength, capacity);
+    this.nameHash = Arrays.copyOf(this.nameHash, capacity);
+    this.lookupNameHash = Arrays.copyOf(this.lookupNameHash, capacity);
+  }
+
+  /**
+   * Continues the given hash with the case-folded characters - hashing a name in parts gives the same
+   * result as hashing it in one go.
+   */
+  private static int hash(final int startHash, final char[] chars, final int start, final int len) {
+    int h = startHash;
+    for (int i = start; i < start + len; i++) {
+      h = 31 * h + Character.toLowerCase(chars[i]);
+    }
+    return h;
+  }
+
+  private static int hash(final String name) {
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      h = 31 * h + Character.toLowerCase(name.charAt(i));
+    }
+    return h;
+  }
+
+  private static int childKey(final int dirIndex, final int hash) {
+    return hash * 0x9E3779B9 + dirIndex;
+  }
+
+  private static int slot(final int key, final int mask) {
+    return (key ^ (key >>> 16)) & mask;
+  }
+
+  /**
+   * Builds both lookup tables - entries are put in search order, so that for every key the first matching
+   * entry on the probe sequence is the one to find.
+   */
+  private void buildLookupTables() {
+    int size = 4;
+    while (size < this.count * 4) {
+      size <<= 1;
+    }
+    final int[] newChildTable = new int[size];
+    for (int i = 0; i < this.count; i++) {
+      if (i != ROOT) {
+        put(newChildTable, childKey(this.parent[i], this.nameHash[i]), i);
+        if (this.lookupNameHash[i] != this.nameHash[i]) {
+          put(newChildTable, childKey(this.parent[i], this.lookupNameHash[i]), i);
+        }
+      }
+    }
+    final int[] newGlobalTable = new int[size];
+    fillGlobalTable(newGlobalTable, ROOT);
+    this.childTable = newChildTable;
+    this.globalTable = newGlobalTable;
+  }
+
+  private void fillGlobalTable(final int[] table, final int dirIndex) {
+    // same order as the recursive search: all direct children first, then pre-order for every subdirectory
+    for (int child = this.firstChild[dirIndex]; child != NOT_FOUND; child = this.nextSibling[child]) {
+      put(table, this.nameHash[child], child);
+      if (this.lookupNameHash[child] != this.nameHash[child]) {
+        put(table, this.lookupNameHash[child], child);
+      }
+    }
+    for (int child = this.firstChild[dirIndex]; child != NOT_FOUND; child = this.nextSibling[child]) {
+      if (this.kind[child] == KIND_DIR) {
+        fillGlobalTable(table, child);
+      }
+    }
+  }
+
+  private static void put(final int[] table, final int key, final int index) {
+    final int mask = table.length - 1;
+    int i = slot(key, mask);
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = index + 1;
+  }
+
+  private void ensureLookupTables() {
+    if (this.childTable == null) {
+      buildLookupTables();
+    }
+  }
+
+  /**
+   * Releases unused capacity and builds the lookup tables - to be called once the tree is complete,
+   * before it is shared between threads.
+   */
+  public void trimToSize() {
+    grow(this.count);
+    this.namePool = Arrays.copyOf(this.namePool, this.namePoolSize);
+    ensureLookupTables();
+  }
+
+  /**
+   * Returns the number of entries in this tree, including the root directory.
+   * 
+   * @return number of entries.
+   */
+  public int getEntryCount() {
+    return this.count;
+  }
+
+  /**
+   * Returns a new cursor positioned on the root directory.
+   * 
+   * @return new cursor.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Returns the entry index of the entry with the given name, searched for from the root directory.
+   * 
+   * @param name name of entry to search for.
+   * @return entry index, or NOT_FOUND.
+   */
+  public int find(final String name) {
+    ensureLookupTables();
+    // the global table starts with the direct children of root
+    final int[] table = this.globalTable;
+    final int mask = table.length - 1;
+    for (int i = slot(hash(name), mask); table[i] != 0; i = (i + 1) & mask) {
+      final int candidate = table[i] - 1;
+      if (nameMatches(candidate, name) || lookupNameMatches(candidate, name)) {
+        return candidate;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Returns the entry index of the entry with the given name below the given directory - direct
+   * children first, then pre-order through all subdirectories.
+   * 
+   * @param dirIndex entry index of directory to start from.
+   * @param name name of entry to search for.
+   * @return entry index, or NOT_FOUND.
+   */
+  public int find(final int dirIndex, final String name) {
+    if (dirIndex == ROOT) {
+      return find(name);
+    }
+    final int directEntry = findChild(dirIndex, name);
+    if (directEntry != NOT_FOUND) {
+      return directEntry;
+    }
+    for (int child = this.firstChild[dirIndex]; child != NOT_FOUND; child = this.nextSibling[child]) {
+      if (this.kind[child] == KIND_DIR) {
+        final int matchingEntry = find(child, name);
+        if (matchingEntry != NOT_FOUND) {
+          return matchingEntry;
+        }
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Returns the entry index of the direct child of the given directory with the given name.
+   * 
+   * @param dirIndex entry index of directory.
+   * @param name name of entry to search for.
+   * @return entry index, or NOT_FOUND.
+   */
+  public int findChild(final int dirIndex, final String name) {
+    ensureLookupTables();
+    final int[] table = this.childTable;
+    final int mask = table.length - 1;
+    for (int i = slot(childKey(dirIndex, hash(name)), mask); table[i] != 0; i = (i + 1) & mask) {
+      final int candidate = table[i] - 1;
+      if (this.parent[candidate] == dirIndex && (nameMatches(candidate, name) || lookupNameMatches(candidate, name))) {
+        return candidate;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  private boolean nameMatches(final int index, final String name) {
+    return this.nameLength[index] == name.length() && regionMatches(name, 0, index);
+  }
+
+  private boolean lookupNameMatches(final int index, final String name) {
+    // compare from the end, one ancestor name after the other
+    int end = name.length();
+    for (int i = index; i != ROOT; i = this.parent[i]) {
+      final int start = end - this.nameLength[i];
+      if (start < 0 || !regionMatches(name, start, i)) {
+        return false;
+      }
+      end = start;
+    }
+    return end == 0;
+  }
+
+  private boolean regionMatches(final String name, final int start, final int index) {
+    final int poolStart = this.nameStart[index];
+    final int len = this.nameLength[index];
+    for (int i = 0; i < len; i++) {
+      final char c1 = name.charAt(start + i);
+      final char c2 = this.namePool[poolStart + i];
+      if (c1 != c2 && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the entry index of the file the given entry stands for - for links, the
+   * link target, for all other entries the entry itself. A link to another link is followed.
+   * 
+   * @param index entry index.
+   * @return entry index of file, or NOT_FOUND for dangling links.
+   */
+  public int resolve(final int index) {
+    int target = index;
+    // a cycle of links ends as a dangling link
+    for (int hops = 0; target != NOT_FOUND && this.kind[target] == KIND_LINK; hops++) {
+      if (hops == this.count) {
+        return NOT_FOUND;
+      }
+      target = find(getLinkTarget(target));
+    }
+    return target != NOT_FOUND && this.kind[target] == KIND_FILE ? target : NOT_FOUND;
+  }
+
+  /**
+   * Returns a read-only view on the binary data of the given file or link.
+   * 
+   * @param sourceData source data of whole image file.
+   * @param index entry index of file or link.
+   * @return read-only view on binary data, empty for directories and dangling links.
+   */
+  public ByteBuffer getDataView(final Memory sourceData, final int index) {
+    final int file = resolve(index);
+    if (file == NOT_FOUND || this.kind[file] != KIND_FILE) {
+      return ByteBuffer.allocate(0);
+    }
+    return sourceData.getDataView(this.offset[file] + 8, this.length[file]);
+  }
+
+  private String getName(final int index) {
+    return new String(this.namePool, this.nameStart[index], this.nameLength[index]);
+  }
+
+  private String getLinkTarget(final int index) {
+    final int targetStart = this.nameLength[index] + 1;
+    final int targetLength = this.storedNameLength[index] - targetStart;
+    if (targetLength < 0) {
+      // not really a link, just like SHILink
+      return getName(index);
+    }
+    return new String(this.namePool, this.nameStart[index] + targetStart, targetLength);
+  }
+
+  /**
+   * Flyweight accessor for the entries of a SHICompactTree - a cursor is positioned on
+   * one entry at a time and can be moved through the tree; moving does not create objects.
+   */
+  public class Cursor {
+
+    private int index = ROOT;
+
+    /**
+     * Returns the entry index the cursor is positioned on.
+     * 
+     * @return current entry index.
+     */
+    public int getIndex() {
+      return this.index;
+    }
+
+    /**
+     * Positions the cursor on the given entry index.
+     * 
+     * @param entryIndex entry index.
+     * @return this cursor.
+     */
+    public Cursor moveTo(final int entryIndex) {
+      if (entryIndex < 0 || entryIndex >= SHICompactTree.this.count) {
+        throw new IndexOutOfBoundsException("No entry with index " + entryIndex);
+      }
+      this.index = entryIndex;
+      return this;
+    }
+
+    /**
+     * Moves the cursor to the parent directory.
+     * 
+     * @return true if moved, false if on root directory.
+     */
+    public boolean toParent() {
+      return moveIfFound(SHICompactTree.this.parent[this.index]);
+    }
+
+    /**
+     * Moves the cursor to the first entry of the current directory.
+     * 
+     * @return true if moved, false if not a directory or empty.
+     */
+    public boolean toFirstChild() {
+      return moveIfFound(SHICompactTree.this.firstChild[this.index]);
+    }
+
+    /**
+     * Moves the cursor to the next entry in the same directory.
+     * 
+     * @return true if moved, false if on last entry.
+     */
+    public boolean toNextSibling() {
+      return moveIfFound(SHICompactTree.this.nextSibling[this.index]);
+    }
+
+    /**
+     * Moves the cursor to the entry with the given name below the current directory.
+     * 
+     * @param name name of entry to search for.
+     * @return true if moved, false if not found.
+     */
+    public boolean toEntry(final String name) {
+      return isDirectory() && moveIfFound(find(this.index, name));
+    }
+
+    private boolean moveIfFound(final int entryIndex) {
+      if (entryIndex == NOT_FOUND) {
+        return false;
+      }
+      this.index = entryIndex;
+      return true;
+    }
+
+    public boolean isDirectory() {
+      return SHICompactTree.this.kind[this.index] == KIND_DIR;
+    }
+
+    public boolean isFile() {
+      return SHICompactTree.this.kind[this.index] == KIND_FILE;
+    }
+
+    public boolean isLink() {
+      return SHICompactTree.this.kind[this.index] == KIND_LINK;
+    }
+
+    /**
+     * Returns the name of the current entry - for links, without link target.
+     * 
+     * @return name of current entry.
+     */
+    public String getName() {
+      return SHICompactTree.this.getName(this.index);
+    }
+
+    /**
+     * Returns the name of the current entry as stored in the image - for links, including the link target.
+     * 
+     * @return stored name of current entry.
+     */
+    public String getStoredName() {
+      return new String(SHICompactTree.this.namePool, SHICompactTree.this.nameStart[this.index], SHICompactTree.this.storedNameLength[this.index]);
+    }
+
+    /**
+     * Returns the name of the link target of the current entry, only useful for links.
+     * 
+     * @return name of link target.
+     */
+    public String getLinkTarget() {
+      return SHICompactTree.this.getLinkTarget(this.index);
+    }
+
+    /**
+     * Returns the full pathname of the current entry in the form "$/parent/entry".
+     * 
+     * @return full pathname of current entry.
+     */
+    public String getPathname() {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = this.index; i != NOT_FOUND; i = SHICompactTree.this.parent[i]) {
+        sb.insert(0, SHICompactTree.this.getName(i));
+        if (i != ROOT) {
+          sb.insert(0, '/');
+        }
+      }
+      return sb.toString();
+    }
+
+    /**
+     * Returns the lookup name of the current entry, i.e. the name that is used
+     * inside manuals to link to each other.
+     * 
+     * @return lookup name of current entry.
+     */
+    public String getLookupName() {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = this.index; i != ROOT; i = SHICompactTree.this.parent[i]) {
+        sb.insert(0, SHICompactTree.this.getName(i));
+      }
+      return sb.toString();
+    }
+
+    public int getOffset() {
+      return SHICompactTree.this.offset[this.index];
+    }
+
+    /**
+     * Returns the length of the current file in bytes, 0 for directories and links.
+     * 
+     * @return length of file in bytes.
+     */
+    public int getLength() {
+      return SHICompactTree.this.length[this.index];
+    }
+
+    public long getLoadAddr() {
+      return SHICompactTree.this.load[this.index] & 0xFFFFFFFFL;
+    }
+
+    public long getExecAddr() {
+      return SHICompactTree.this.exec[this.index] & 0xFFFFFFFFL;
+    }
+
+    public LoadExec getLoadExec() {
+      return new LoadExec(getLoadAddr(), getExecAddr());
+    }
+
+    @Override
+    public String toString() {
+      return getPathname() + " [" + getLoadExec() + "]";
+    }
+  }
+}
@@ -33,7 +33,10 @@ For more information, please refer to <http://unlicense.org/>
 package com.hubersn.riscos.stronghelp.imagefile;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.hubersn.riscos.util.fs.LoadExec;
 
@@ -44,6 +47,18 @@ public class SHIDir extends SHIEntry {
 
   private List<SHIEntry> children = new ArrayList<>();
 
+  /** All child directories in child order, for recursive search. */
+  private List<SHIDir> subDirs = new ArrayList<>();
+
+  /** Index of all children by folded name and folded lookup name, built on first lookup. */
+  private Map<String, SHIEntry> index;
+
+  /** Flat immutable index of the whole tree below this directory, only built for the root. */
+  private volatile Map<String, SHIEntry> globalIndex;
+
+  /** Loader to fill this directory on first access, null if already filled. */
+  private SHIDirLoaderIF loader;
+
   /**
    * Creates a new instance of SHIDir, representing a directory with given id, name, offset and LoadExec.
    * 
@@ -53,7 +68,44 @@ public class SHIDir extends SHIEntry {
    * @param loadExec RISC OS load/exec pair.
    */
   public SHIDir(String id, String name, int offset, final LoadExec loadExec) {
+    this(id, name, offset, loadExec, null);
+  }
+
+  /**
+   * Creates a new instance of SHIDir, representing a directory with given id, name, offset and LoadExec
+   * whose entries are read by the given loader on first access.
+   * 
+   * @param id id of entry - "DIR$" for directories.
+   * @param name name of directory.
+   * @param offset byte offset into source image file binary.
+   * @param loadExec RISC OS load/exec pair.
+   * @param loader loader to fill this directory on first access, may be null.
+   */
+  public SHIDir(String id, String name, int offset, final LoadExec loadExec, final SHIDirLoaderIF loader) {
     super(id, name, offset, loadExec);
+    this.loader = loader;
+  }
+
+  /**
+   * Returns true if the entries of this directory have already been read.
+   * 
+   * @return entries of this directory read?
+   */
+  public synchronized boolean isLoaded() {
+    return this.loader == null;
+  }
+
+  /**
+   * Reads the entries of this directory if not yet done - only to be called while holding the lock of this
+   * directory, which also guards children and index, as pages of a manual may be converted concurrently.
+   */
+  private void ensureLoaded() {
+    if (this.loader != null) {
+      final SHIDirLoaderIF dirLoader = this.loader;
+      // reset first, the loader will call add() on us
+      this.loader = null;
+      dirLoader.loadDir(this);
+    }
   }
 
   /**
@@ -61,9 +113,25 @@ public class SHIDir extends SHIEntry {
    * 
    * @param child new entry to add.
    */
-  public void add(final SHIEntry child) {
+  public synchronized void add(final SHIEntry child) {
     this.children.add(child);
+    if (child instanceof SHIDir) {
+      this.subDirs.add((SHIDir) child);
+    }
     child.setParent(this);
+    this.index = null;
+    for (SHIEntry dir = this; dir != null; dir = dir.getParent()) {
+      ((SHIDir) dir).globalIndex = null;
+    }
+  }
+
+  @Override
+  void updateNames() {
+    super.updateNames();
+    // names of already read children depend on ours
+    for (final SHIEntry child : this.children) {
+      child.updateNames();
+    }
   }
 
   /**
@@ -72,45 +140,102 @@ public class SHIDir extends SHIEntry {
    * @param index entry index.
    * @return entry at given index.
    */
-  public SHIEntry getEntryAt(final int index) {
+  public synchronized SHIEntry getEntryAt(final int index) {
+    ensureLoaded();
     return this.children.get(index);
   }
 
   /**
    * Returns an entry matching the given name, or null if not found - direct
    * children are searched for first, then a recursive pre-order search is
-   * done.
+   * done. For the root directory, the recursive search is answered by a flat
+   * global index of the whole tree.
    * 
    * @param name name of entry to search for.
    * @return entry with given name, or null if not found.
    */
   public SHIEntry getEntry(final String name) {
-    for (final SHIEntry entry : this.children) {
-      // all internal links were converted to lower case!
-      if (name.equalsIgnoreCase(entry.getName()) || name.equalsIgnoreCase(entry.getLookupName())) {
-        return entry;
-      }
+    final SHIEntry directEntry = getDirectEntry(name);
+    if (directEntry != null) {
+      return directEntry;
+    }
+    if (isRoot()) {
+      return getGlobalIndex().get(fold(name));
     }
     // not yet found? check all dirs recursively for entry
-    for (final SHIEntry entry : this.children) {
-      if (entry instanceof SHIDir) {
-        SHIEntry matchingEntry = ((SHIDir)entry).getEntry(name);
-        if (matchingEntry != null) {
-          return matchingEntry;
-        }
+    for (final SHIDir dir : this.subDirs) {
+      SHIEntry matchingEntry = dir.getEntry(name);
+      if (matchingEntry != null) {
+        return matchingEntry;
       }
     }
     // not found - caller must handle null
     return null;
   }
 
+  /**
+   * Returns a direct child entry matching the given name, or null if not found -
+   * in contrast to getEntry, subdirectories are not searched (and hence not read).
+   * 
+   * @param name name of entry to search for.
+   * @return direct child entry with given name, or null if not found.
+   */
+  public SHIEntry getDirectEntry(final String name) {
+    // all internal links were converted to lower case!
+    return getIndex().get(fold(name));
+  }
+
+  private synchronized Map<String, SHIEntry> getIndex() {
+    ensureLoaded();
+    if (this.index == null) {
+      final Map<String, SHIEntry> newIndex = new HashMap<>();
+      for (final SHIEntry entry : this.children) {
+        // first match wins, just like a linear search in child order
+        addToIndex(newIndex, entry.getFoldedName(), entry);
+        addToIndex(newIndex, entry.getFoldedLookupName(), entry);
+      }
+      this.index = newIndex;
+    }
+    return this.index;
+  }
+
+  private synchronized Map<String, SHIEntry> getGlobalIndex() {
+    Map<String, SHIEntry> currentGlobalIndex = this.globalIndex;
+    if (currentGlobalIndex == null) {
+      final Map<String, SHIEntry> newGlobalIndex = new HashMap<>();
+      fillGlobalIndex(newGlobalIndex);
+      currentGlobalIndex = Collections.unmodifiableMap(newGlobalIndex);
+      this.globalIndex = currentGlobalIndex;
+    }
+    return currentGlobalIndex;
+  }
+
+  private synchronized void fillGlobalIndex(final Map<String, SHIEntry> globalIndexToFill) {
+    // same order as the recursive search: all direct children first, then pre-order for every subdirectory
+    ensureLoaded();
+    for (final SHIEntry entry : this.children) {
+      addToIndex(globalIndexToFill, entry.getFoldedName(), entry);
+      addToIndex(globalIndexToFill, entry.getFoldedLookupName(), entry);
+    }
+    for (final SHIDir dir : this.subDirs) {
+      dir.fillGlobalIndex(globalIndexToFill);
+    }
+  }
+
+  private static void addToIndex(final Map<String, SHIEntry> index, final String key, final SHIEntry entry) {
+    if (!index.containsKey(key)) {
+      index.put(key, entry);
+    }
+  }
+
   /**
    * Returns an array of all entries of this directory, might be an empty
    * array, but never null.
    * 
    * @return array of all entries of this directory.
    */
-  public SHIEntry[] getEntries() {
+  public synchronized SHIEntry[] getEntries() {
+    ensureLoaded();
     return this.children.toArray(new SHIEntry[0]);
   }
 }
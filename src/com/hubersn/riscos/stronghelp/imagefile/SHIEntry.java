@@ -32,6 +32,8 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp.imagefile;
 
+import java.util.Locale;
+
 import com.hubersn.riscos.util.fs.LoadExec;
 
 /**
@@ -52,6 +54,29 @@ public abstract class SHIEntry {
 
   private SHIEntry parent;
 
+  /** Cached full pathname, calculated when attached to a parent. */
+  private String pathname;
+
+  /** Cached lookup name, calculated when attached to a parent. */
+  private String lookupName;
+
+  /** Cached case-folded name as lookup key. */
+  private String foldedName;
+
+  /** Cached case-folded lookup name as lookup key. */
+  private String foldedLookupName;
+
+  /**
+   * Returns the case-folded variant of the given name to be used as a key for
+   * case-insensitive lookups.
+   * 
+   * @param name name to fold.
+   * @return case-folded name.
+   */
+  static String fold(final String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+
   /**
    * Creates a new instance of SHIEntry, representing an entry with given id, name, offset and LoadExec.
    * 
@@ -100,6 +125,49 @@ public abstract class SHIEntry {
 
   public void setParent(final SHIEntry parent) {
     this.parent = parent;
+    updateNames();
+  }
+
+  /**
+   * Calculates pathname, lookup name and their lookup keys once, so that
+   * lookups do not need to build strings.
+   */
+  void updateNames() {
+    final String myName = getName();
+    if (isRoot()) {
+      this.pathname = myName;
+      this.lookupName = "";
+    } else {
+      this.pathname = getParent().getPathname() + DIR_SEP + myName;
+      this.lookupName = getParent().getLookupName() + myName;
+    }
+    // folding returns the same instance if already lower case
+    this.foldedName = fold(myName);
+    this.foldedLookupName = fold(this.lookupName);
+  }
+
+  /**
+   * Returns the case-folded name as a lookup key.
+   * 
+   * @return case-folded name.
+   */
+  String getFoldedName() {
+    if (this.foldedName == null) {
+      updateNames();
+    }
+    return this.foldedName;
+  }
+
+  /**
+   * Returns the case-folded lookup name as a lookup key.
+   * 
+   * @return case-folded lookup name.
+   */
+  String getFoldedLookupName() {
+    if (this.foldedLookupName == null) {
+      updateNames();
+    }
+    return this.foldedLookupName;
   }
 
   /**
@@ -126,10 +194,10 @@ public abstract class SHIEntry {
    * @return full pathname of this entry.
    */
   public String getPathname() {
-    if (!isRoot()) {
-      return getParent().getPathname() + DIR_SEP + getName();
+    if (this.pathname == null) {
+      updateNames();
     }
-    return getName();
+    return this.pathname;
   }
 
   /**
@@ -139,11 +207,10 @@ public abstract class SHIEntry {
    * @return lookup name of this entry.
    */
   public String getLookupName() {
-    String result = "";
-    if (!isRoot()) {
-      result = getParent().getLookupName() + getName();
+    if (this.lookupName == null) {
+      updateNames();
     }
-    return result;
+    return this.lookupName;
   }
 
   /**
@@ -154,36 +221,22 @@ public abstract class SHIEntry {
   public SHIEntry getRoot() {
     SHIEntry root = this;
     while (!root.isRoot()) {
-      root = getParent();
+      root = root.getParent();
     }
     return root;
   }
 
   /**
    * Convenience method that searches for the entry with the given name, starting from
-   * the root directory of the SHI structure of which this entry is part of.
+   * the root directory of the SHI structure of which this entry is part of - this is
+   * answered by the flat global index of the root directory.
    * 
    * @param entryName name of entry to search for
    * @return entry matching name, or null if no matching entry is found.
    */
   public SHIEntry getGlobalEntry(final String entryName) {
     SHIDir root = (SHIDir)getRoot();
-    return getGlobalDirEntry(root, entryName);
-  }
-
-  private SHIEntry getGlobalDirEntry(final SHIDir dirToCheck, final String entryName) {
-    SHIEntry entry = dirToCheck.getEntry(entryName);
-    if (entry == null) {
-      for (SHIEntry possibleDirToCheck : dirToCheck.getEntries()) {
-        if (possibleDirToCheck instanceof SHIDir) {
-          SHIEntry possibleResult = getGlobalDirEntry((SHIDir)possibleDirToCheck, entryName);
-          if (possibleResult != null) {
-            return possibleResult;
-          }
-        }
-      }
-    }
-    return entry;
+    return root.getEntry(entryName);
   }
 
   @Override
@@ -32,6 +32,8 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp.imagefile;
 
+import java.nio.ByteBuffer;
+
 import com.hubersn.riscos.util.fs.LoadExec;
 import com.hubersn.util.memory.Memory;
 
@@ -57,6 +59,15 @@ public class SHIFile extends SHIEntry {
     this.length = length;
   }
 
+  /**
+   * Returns the length of this file in bytes.
+   * 
+   * @return length of file in bytes.
+   */
+  public int getLength() {
+    return this.length;
+  }
+
   /**
    * Returns the binary data content of this file.
    * 
@@ -67,6 +78,16 @@ public class SHIFile extends SHIEntry {
     return sourceData.getDataSlice(getOffset() + 8, this.length);
   }
 
+  /**
+   * Returns a read-only view on the binary data content of this file without copying it.
+   * 
+   * @param sourceData source data of whole image file.
+   * @return read-only view on binary data content of this file.
+   */
+  public ByteBuffer getDataView(final Memory sourceData) {
+    return sourceData.getDataView(getOffset() + 8, this.length);
+  }
+
   @Override
   public String toString() {
     return super.toString() + "|length="+this.length;
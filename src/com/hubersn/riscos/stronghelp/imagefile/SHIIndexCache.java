@@ -0,0 +1,151 @@
+/*
+ * (c) hubersn Software
+ * www.hubersn.com
+ */
+
+/*
+This is free and unencumbered software released into the public domain.
+
+Anyone is free to copy, modify, publish, use, compile, sell, or
+distribute this software, either in source code form or as a compiled
+binary, for any purpose, commercial or non-commercial, and by any
+means.
+
+In jurisdictions that recognize copyright laws, the author or authors
+of this software dedicate any and all copyright interest in the
+software to the public domain. We make this dedication for the benefit
+of the public at large and to the detriment of our heirs and
+successors. We intend this dedication to be an overt act of
+relinquishment in perpetuity of all present and future rights to this
+software under copyright law.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+For more information, please refer to <http://unlicense.org/>
+*/
+
+package com.hubersn.riscos.stronghelp.imagefile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.hubersn.util.io.FileUtils;
+
+/**
+ * Persistent on-disk cache for the directory structure of StrongHelp image files,
+ * so that the DIR$ blocks need not be parsed again on every start.
+ * <p>
+ * Every manual gets one index file inside the cache directory, holding its compact tree. It is
+ * only used if path, size, modification time and content hash of the manual still match - the
+ * content hash is given by the caller and should be cheap to compute, e.g. a checksum of the
+ * image header and the root directory, to detect in-place rewrites keeping size and modification
+ * time. The index file is big-endian and memory-mapped for reading:
+ * <ul>
+ * <li>header: "SHIX", version, UTF-8 path (length-prefixed), size, mtime, content hash</li>
+ * <li>compact tree: entry count, name pool size, one block per entry array, name pool</li>
+ * </ul>
+ */
+public class SHIIndexCache {
+
+  private static final int MAGIC = 0x53484958; // "SHIX"
+
+  private static final int VERSION = 3;
+
+  private final File cacheDirectory;
+
+  /**
+   * Creates a new instance of SHIIndexCache storing its index files in the given directory.
+   * 
+   * @param cacheDirectory directory for index files, created on first write if missing.
+   */
+  public SHIIndexCache(final File cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  private File getIndexFile(final File manualFile) {
+    final String path = manualFile.getAbsolutePath();
+    final String safeName = manualFile.getName().replaceAll("[^A-Za-z0-9!_,.-]", "_");
+    return new File(this.cacheDirectory, safeName + "-" + Integer.toHexString(path.hashCode()) + ".shx");
+  }
+
+  /**
+   * Returns the compact tree with the complete directory structure for the given manual from
+   * the cache, or null if there is no valid index for this manual.
+   * 
+   * @param manualFile manual source file.
+   * @param contentHash content hash of the manual as given on writing the index.
+   * @return compact tree, or null if not cached or outdated.
+   */
+  public SHICompactTree read(final File manualFile, final long contentHash) {
+    final File indexFile = getIndexFile(manualFile);
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    try {
+      // big-endian by default
+      final ByteBuffer index = FileUtils.map(indexFile);
+      if (index.getInt() != MAGIC || index.getInt() != VERSION) {
+        return null;
+      }
+      final byte[] path = new byte[index.getInt()];
+      index.get(path);
+      if (!new String(path, StandardCharsets.UTF_8).equals(manualFile.getAbsolutePath())
+          || index.getLong() != manualFile.length()
+          || index.getLong() != manualFile.lastModified()
+          || index.getLong() != contentHash) {
+        return null;
+      }
+      return SHICompactTree.read(index);
+    } catch (final Exception ex) {
+      // broken index is no problem, the manual is just parsed again
+      System.err.println("Ignoring unreadable index file " + indexFile + ": " + ex);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the given compact tree to the index file for the given manual.
+   * 
+   * @param manualFile manual source file.
+   * @param contentHash content hash of the manual.
+   * @param tree complete compact tree of the manual.
+   * @throws IOException on errors writing the index file.
+   */
+  public void write(final File manualFile, final long contentHash, final SHICompactTree tree) throws IOException {
+    if (!this.cacheDirectory.isDirectory() && !this.cacheDirectory.mkdirs()) {
+      throw new IOException("Cannot create index cache directory " + this.cacheDirectory);
+    }
+    final File indexFile = getIndexFile(manualFile);
+    // write to temporary file first, so that concurrent readers never see a partial index
+    final File tempFile = File.createTempFile(indexFile.getName(), ".tmp", this.cacheDirectory);
+    try {
+      try (final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        final byte[] path = manualFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(path.length);
+        dos.write(path);
+        dos.writeLong(manualFile.length());
+        dos.writeLong(manualFile.lastModified());
+        dos.writeLong(contentHash);
+        tree.write(dos);
+      }
+      Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tempFile.delete();
+    }
+  }
+}
@@ -32,6 +32,8 @@ For more information, please refer to <http://unlicense.org/>
 
 package com.hubersn.riscos.stronghelp.imagefile;
 
+import java.nio.ByteBuffer;
+
 import com.hubersn.riscos.util.fs.LoadExec;
 import com.hubersn.util.memory.Memory;
 
@@ -44,6 +46,11 @@ public class SHILink extends SHIFile {
 
   private String myName;
 
+  /** Link target, resolved on first access - null for dangling links. */
+  private SHIFile target;
+
+  private boolean resolved;
+
   /**
    * Creates a new instance of SHILink, representing a link to a file with given id,
    * name, offset and LoadExec.
@@ -77,6 +84,46 @@ public class SHILink extends SHIFile {
     return this.myName;
   }
 
+  /**
+   * Returns the name of the linked file.
+   * 
+   * @return name of linked file.
+   */
+  public String getLinkName() {
+    return this.linkName;
+  }
+
+  /**
+   * Returns the linked file - the link is resolved on first access only, a link to
+   * another link is followed. Dangling links are remembered as such.
+   * 
+   * @return linked file, or null if the link cannot be resolved.
+   */
+  public SHIFile getTarget() {
+    // links may point to each other, so all links of a manual are resolved under one lock to avoid deadlocks
+    synchronized (getRoot()) {
+      if (!this.resolved) {
+        // mark first, so that a cycle of links ends as a dangling link
+        this.resolved = true;
+        this.target = resolveTarget();
+      }
+      return this.target;
+    }
+  }
+
+  private SHIFile resolveTarget() {
+    SHIEntry entry = getGlobalEntry(this.linkName);
+    if (entry instanceof SHILink && entry != this) {
+      entry = ((SHILink) entry).getTarget();
+    }
+    if (entry instanceof SHIFile && !(entry instanceof SHILink)) {
+      return (SHIFile) entry;
+    }
+    // should an error be thrown???
+    System.err.println("Strange link file data - linked file "+this.linkName+" not found???");
+    return null;
+  }
+
   /**
    * Returns the data of the linked file.
    * 
@@ -85,15 +132,28 @@ public class SHILink extends SHIFile {
    */
   @Override
   public byte[] getData(final Memory sourceData) {
-    final SHIEntry entry = getGlobalEntry(this.linkName);
-    if (entry instanceof SHIFile) {
-      return ((SHIFile)entry).getData(sourceData);
+    final SHIFile file = getTarget();
+    if (file != null) {
+      return file.getData(sourceData);
     }
-    // should an error be thrown???
-    System.err.println("Strange link file data - linked file "+this.linkName+" not found???");
     return new byte[0];
   }
 
+  /**
+   * Returns a read-only view on the data of the linked file.
+   * 
+   * @param sourceData source data.
+   * @return view on data of linked file.
+   */
+  @Override
+  public ByteBuffer getDataView(final Memory sourceData) {
+    final SHIFile file = getTarget();
+    if (file != null) {
+      return file.getDataView(sourceData);
+    }
+    return ByteBuffer.allocate(0);
+  }
+
   @Override
   public String toString() {
     return super.toString() + "|linkTo="+getId();
@@ -6,6 +6,7 @@ package com.hubersn.riscos.util;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import com.hubersn.riscos.util.fs.LoadExec;
 
@@ -14,11 +15,11 @@ import com.hubersn.riscos.util.fs.LoadExec;
  */
 public class DateStamp {
 
-  // Acorn date stamps are "centiseconds since 1900-01-01", store this start time as milliseconds
+  // Acorn date stamps are "centiseconds since 1900-01-01 UTC", store this start time as milliseconds
   private static final long ACORN_START_TIME;
 
   static {
-    Calendar c = Calendar.getInstance();
+    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
     c.set(Calendar.YEAR, 1900);
     c.set(Calendar.MONTH, Calendar.JANUARY);
     c.set(Calendar.DAY_OF_MONTH, 1);
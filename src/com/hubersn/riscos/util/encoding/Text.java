@@ -1,17 +1,117 @@
 package com.hubersn.riscos.util.encoding;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public class Text {
 
+  /** Encoding for text written for other systems, e.g. HTML files. */
+  private static final Charset ENCODING = Charset.forName("WINDOWS-1252");
+
+  /** No Unicode equivalent for a RISC OS character. */
+  private static final char UNMAPPED = '\uFFFD';
+
+  /**
+   * RISC OS Latin1 - identical to ISO-8859-1, apart from 0x80 to 0x9F, which hold
+   * typographic characters instead of control codes.
+   */
+  private static final char[] RISCOS_LATIN1 = new char[256];
+
+  static {
+    for (int i = 0; i < RISCOS_LATIN1.length; i++) {
+      RISCOS_LATIN1[i] = (char) i;
+    }
+    final char[] high = {
+      '€', 'Ŵ', 'ŵ', UNMAPPED, UNMAPPED, 'Ŷ', 'ŷ', UNMAPPED,
+      '⇦', '⇨', '⇩', '⇧', '…', '™', '‰', '•',
+      '‘', '’', '‹', '›', '“', '”', '„', '–',
+      '—', '−', 'Œ', 'œ', '†', '‡', 'ﬁ', 'ﬂ'
+    };
+    System.arraycopy(high, 0, RISCOS_LATIN1, 0x80, high.length);
+  }
+
+  public static Charset getEncoding() {
+    return ENCODING;
+  }
+
+  /**
+   * Returns the character for the given byte in RISC OS Latin1.
+   * 
+   * @param b byte to map.
+   * @return character for byte.
+   */
+  public static char toChar(final byte b) {
+    return RISCOS_LATIN1[b & 0xFF];
+  }
+
   public static String getText(final byte[] data) {
-    try {
-      // TODO proper Latin1 encoding
-      return new String(data, "WINDOWS-1252");
-    } catch (UnsupportedEncodingException e) {
-      // this encoding is available EVERYWHERE!
+    return getText(ByteBuffer.wrap(data));
+  }
+
+  public static String getText(final ByteBuffer data) {
+    final char[] chars = new char[data.remaining()];
+    final int start = data.position();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = toChar(data.get(start + i));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns a view on the given data as RISC OS Latin1 text - characters are mapped
+   * on access, no text is decoded in advance.
+   * 
+   * @param data text data, the view starts at its current position.
+   * @return text view on data.
+   */
+  public static CharSequence getTextView(final ByteBuffer data) {
+    return new TextView(data.duplicate(), data.position(), data.remaining());
+  }
+
+  /**
+   * CharSequence backed by RISC OS Latin1 bytes.
+   */
+  private static class TextView implements CharSequence {
+
+    private final ByteBuffer data;
+
+    private final int offset;
+
+    private final int length;
+
+    private TextView(final ByteBuffer data, final int offset, final int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return this.length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      if (index < 0 || index >= this.length) {
+        throw new IndexOutOfBoundsException("Index " + index + ", length " + this.length);
+      }
+      return toChar(this.data.get(this.offset + index));
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      if (start < 0 || end > this.length || start > end) {
+        throw new IndexOutOfBoundsException("Range " + start + "-" + end + ", length " + this.length);
+      }
+      return new TextView(this.data, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      final ByteBuffer view = this.data.duplicate();
+      view.position(this.offset);
+      view.limit(this.offset + this.length);
+      return getText(view);
     }
-    // platform encoding, probably wrong, but a fallback
-    return new String(data);
   }
 }
@@ -8,10 +8,15 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +33,20 @@ public class FileUtils {
     return Files.readAllBytes(file.toPath());
   }
 
+  /**
+   * Maps the given file read-only into memory - the content is then provided by the OS page cache
+   * instead of the Java heap. The mapping stays valid after the underlying channel is closed.
+   *
+   * @param file file to map.
+   * @return read-only buffer representing the file content.
+   * @throws IOException on errors opening or mapping the file.
+   */
+  public static MappedByteBuffer map(final File file) throws IOException {
+    try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
   public static byte[] loadViaStream(final File file) throws IOException {
     final FileInputStream fis = new FileInputStream(file);
     final BufferedInputStream bis = new BufferedInputStream(fis);
@@ -76,6 +95,24 @@ public class FileUtils {
     return data;
   }
 
+  /**
+   * Writes the remaining content of the given buffer to the given file, creating or overwriting it.
+   * The position of the given buffer is not changed.
+   *
+   * @param file file to write to.
+   * @param data data to write.
+   * @throws IOException on errors writing the file.
+   */
+  public static void save(final File file, final ByteBuffer data) throws IOException {
+    final ByteBuffer source = data.duplicate();
+    try (final FileOutputStream fos = new FileOutputStream(file)) {
+      final FileChannel channel = fos.getChannel();
+      while (source.hasRemaining()) {
+        channel.write(source);
+      }
+    }
+  }
+
   public static String[] readTextLines(final File file) throws IOException {
     return readTextLines(file, null);
   }
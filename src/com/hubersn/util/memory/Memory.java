@@ -4,11 +4,15 @@
  */
 package com.hubersn.util.memory;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Simple memory access wrapper for signed and unsigned values based on byte array data. All non-specific functions assume little-endian
- * data, big-endian is postfixed "Big".
+ * Simple memory access wrapper for signed and unsigned values based on byte array data or a ByteBuffer (e.g. a memory-mapped file). All
+ * non-specific functions assume little-endian data, big-endian is postfixed "Big".
  */
 public class Memory implements Serializable {
 
@@ -53,6 +57,12 @@ public class Memory implements Serializable {
 
   private byte[] data;
 
+  /** Alternative data source if not backed by a byte array, e.g. a read-only MappedByteBuffer - serialized as a byte array copy. */
+  private transient ByteBuffer buffer;
+
+  /** Little-endian view on the alternative data source for multi-byte access. */
+  private transient ByteBuffer littleEndianBuffer;
+
   /** Offset that can be set only in constructor, useful to provide a new "view" on the same byte array data. */
   private final int startOffset;
 
@@ -80,6 +90,30 @@ public class Memory implements Serializable {
     this.internalOffset = startOffset;
   }
 
+  /**
+   * Creates a new Memory instance with the given buffer as data source, e.g. a memory-mapped file.
+   *
+   * @param buffer data source.
+   */
+  public Memory(final ByteBuffer buffer) {
+    this(buffer, 0);
+  }
+
+  /**
+   * Creates a new Memory instance with the given buffer as data source and fixed offset from start of buffer.
+   *
+   * @param buffer data source.
+   * @param startOffset fixed offset into given buffer.
+   */
+  public Memory(final ByteBuffer buffer, final int startOffset) {
+    this.data = null;
+    // own views with fixed byte order for absolute multi-byte access
+    this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    this.littleEndianBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    this.startOffset = startOffset;
+    this.internalOffset = startOffset;
+  }
+
   /**
    * Sets the default offset that is always added to offsets given to data access calls.
    *
@@ -96,6 +130,9 @@ public class Memory implements Serializable {
    * @return byte at given offset.
    */
   public byte getByte(final int offset) {
+    if (this.data == null) {
+      return this.buffer.get(this.internalOffset + offset);
+    }
     return this.data[this.internalOffset + offset];
   }
 
@@ -106,7 +143,7 @@ public class Memory implements Serializable {
    * @return unsigned byte value at given offset.
    */
   public int getUnsignedByte(final int offset) {
-    final byte value = this.data[this.internalOffset + offset];
+    final byte value = getByte(offset);
     if (value < 0) {
       return 256 + value;
     }
@@ -120,9 +157,12 @@ public class Memory implements Serializable {
    * @return unsigned 16bit little endian value at given offset.
    */
   public int getUnsignedHalfWord(final int offset) {
-    int lowByte = getUnsignedByte(offset);
-    int highByte = getUnsignedByte(offset + 1);
-    return highByte * 256 + lowByte;
+    final int i = this.internalOffset + offset;
+    if (this.data == null) {
+      return this.littleEndianBuffer.getShort(i) & 0xFFFF;
+    }
+    final byte[] d = this.data;
+    return (d[i] & 0xFF) | ((d[i + 1] & 0xFF) << 8);
   }
 
   /**
@@ -132,9 +172,12 @@ public class Memory implements Serializable {
    * @return unsigned 16bit big endian value at given offset.
    */
   public int getUnsignedHalfWordBig(final int offset) {
-    int highByte = getUnsignedByte(offset);
-    int lowByte = getUnsignedByte(offset + 1);
-    return highByte * 256 + lowByte;
+    final int i = this.internalOffset + offset;
+    if (this.data == null) {
+      return this.buffer.getShort(i) & 0xFFFF;
+    }
+    final byte[] d = this.data;
+    return ((d[i] & 0xFF) << 8) | (d[i + 1] & 0xFF);
   }
 
   /**
@@ -144,11 +187,7 @@ public class Memory implements Serializable {
    * @return unsigned 32bit little endian value at given offset.
    */
   public long getUnsignedWord(final int offset) {
-    long lowByte = getUnsignedByte(offset);
-    long lowHighByte = getUnsignedByte(offset + 1);
-    long highLowByte = getUnsignedByte(offset + 2);
-    long highByte = getUnsignedByte(offset + 3);
-    return highByte * 256 * 256 * 256 + highLowByte * 256 * 256 + lowHighByte * 256 + lowByte;
+    return getWord(offset) & 0xFFFFFFFFL;
   }
 
   /**
@@ -158,11 +197,7 @@ public class Memory implements Serializable {
    * @return unsigned 32bit big endian value at given offset.
    */
   public long getUnsignedWordBig(final int offset) {
-    long highByte = getUnsignedByte(offset);
-    long highLowByte = getUnsignedByte(offset + 1);
-    long lowHighByte = getUnsignedByte(offset + 2);
-    long lowByte = getUnsignedByte(offset + 3);
-    return highByte * 256 * 256 * 256 + highLowByte * 256 * 256 + lowHighByte * 256 + lowByte;
+    return getWordBig(offset) & 0xFFFFFFFFL;
   }
 
   /**
@@ -172,11 +207,12 @@ public class Memory implements Serializable {
    * @return 32bit little endian value at given offset.
    */
   public int getWord(final int offset) {
-    long lowByte = getUnsignedByte(offset);
-    long lowHighByte = getUnsignedByte(offset + 1);
-    long highLowByte = getUnsignedByte(offset + 2);
-    long highByte = getUnsignedByte(offset + 3);
-    return (int) ((highByte * 256 * 256 * 256 + highLowByte * 256 * 256 + lowHighByte * 256 + lowByte) & 0xFFFFFFFF);
+    final int i = this.internalOffset + offset;
+    if (this.data == null) {
+      return this.littleEndianBuffer.getInt(i);
+    }
+    final byte[] d = this.data;
+    return (d[i] & 0xFF) | ((d[i + 1] & 0xFF) << 8) | ((d[i + 2] & 0xFF) << 16) | (d[i + 3] << 24);
   }
 
   /**
@@ -186,11 +222,12 @@ public class Memory implements Serializable {
    * @return 32bit big endian value at given offset.
    */
   public int getWordBig(final int offset) {
-    long highByte = getUnsignedByte(offset);
-    long highLowByte = getUnsignedByte(offset + 1);
-    long lowHighByte = getUnsignedByte(offset + 2);
-    long lowByte = getUnsignedByte(offset + 3);
-    return (int) ((highByte * 256 * 256 * 256 + highLowByte * 256 * 256 + lowHighByte * 256 + lowByte) & 0xFFFFFFFF);
+    final int i = this.internalOffset + offset;
+    if (this.data == null) {
+      return this.buffer.getInt(i);
+    }
+    final byte[] d = this.data;
+    return (d[i] << 24) | ((d[i + 1] & 0xFF) << 16) | ((d[i + 2] & 0xFF) << 8) | (d[i + 3] & 0xFF);
   }
 
   /**
@@ -202,9 +239,7 @@ public class Memory implements Serializable {
    * @return newly allocated byte array.
    */
   public byte[] getBytes(final int offset, final int length) {
-    final byte[] bytes = new byte[length];
-    System.arraycopy(this.data, this.internalOffset + offset, bytes, 0, length);
-    return bytes;
+    return getDataSlice(offset, length);
   }
 
   /**
@@ -235,15 +270,11 @@ public class Memory implements Serializable {
    * @return text
    */
   private String getTerminatedText(final int offset, final int terminateIfEqualOrLess) {
-    StringBuilder sb = new StringBuilder();
-    int currentByte = getUnsignedByte(offset);
-    int add = 0;
-    while (currentByte > terminateIfEqualOrLess) {
-      sb.append((char) currentByte);
-      add++;
-      currentByte = getUnsignedByte(offset + add);
+    int length = 0;
+    while (getUnsignedByte(offset + length) > terminateIfEqualOrLess) {
+      length++;
     }
-    return sb.toString();
+    return getLatin1Text(offset, length);
   }
 
   /**
@@ -253,15 +284,49 @@ public class Memory implements Serializable {
    * @return
    */
   public String getText(final int offset, final int maxLength) {
-    StringBuilder sb = new StringBuilder();
-    for (int add = 0; add < maxLength; add++) {
-      char toAdd = (char) getUnsignedByte(offset + add);
-      if (toAdd < 32) {
-        break;
-      }
-      sb.append(toAdd);
+    int length = 0;
+    while (length < maxLength && getUnsignedByte(offset + length) >= 32) {
+      length++;
+    }
+    return getLatin1Text(offset, length);
+  }
+
+  /**
+   * Creates a string from the given range with every byte being interpreted as the character with the same code (ISO-8859-1).
+   *
+   * @param offset offset into memory to start from.
+   * @param length number of bytes.
+   * @return text
+   */
+  private String getLatin1Text(final int offset, final int length) {
+    if (this.data == null) {
+      return new String(getDataSlice(offset, length), StandardCharsets.ISO_8859_1);
+    }
+    return new String(this.data, this.internalOffset + offset, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns the 32bit little endian value of the given four character marker string (like "DIR$"), for comparison with hasMarker.
+   *
+   * @param marker four character marker string.
+   * @return marker as 32bit little endian value.
+   */
+  public static int marker(final String marker) {
+    if (marker.length() != 4) {
+      throw new IllegalArgumentException("marker must consist of exactly four characters");
     }
-    return sb.toString();
+    return (marker.charAt(0) & 0xFF) | ((marker.charAt(1) & 0xFF) << 8) | ((marker.charAt(2) & 0xFF) << 16) | ((marker.charAt(3) & 0xFF) << 24);
+  }
+
+  /**
+   * Checks if the four bytes at the given offset match the given marker without creating a string.
+   *
+   * @param offset offset into data.
+   * @param marker marker value as returned by marker(String).
+   * @return marker found at given offset?
+   */
+  public boolean hasMarker(final int offset, final int marker) {
+    return getWord(offset) == marker;
   }
 
   // hubersn implementation, work in progress...
@@ -337,14 +402,54 @@ public class Memory implements Serializable {
   }
 
   /**
-   * Returns the complete underlying data of this Memory object.
+   * Returns the complete underlying data of this Memory object - if backed by a ByteBuffer, this is a newly allocated copy.
    *
    * @return underlying data of this Memory object.
    */
   public byte[] getData() {
+    if (this.data == null) {
+      final byte[] copy = new byte[this.buffer.capacity()];
+      copyFromBuffer(0, copy);
+      return copy;
+    }
     return this.data;
   }
 
+  /**
+   * Returns the size of the complete underlying data of this Memory object.
+   *
+   * @return size of underlying data in bytes.
+   */
+  public int getSize() {
+    if (this.data == null) {
+      return this.buffer.capacity();
+    }
+    return this.data.length;
+  }
+
+  /**
+   * Replaces this Memory object by a copy backed by a byte array on serialization if backed by a ByteBuffer,
+   * as the buffer itself cannot be serialized.
+   *
+   * @return object to serialize instead of this one.
+   * @throws ObjectStreamException never.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if (this.data == null) {
+      final Memory copy = new Memory(getData(), this.startOffset);
+      copy.internalOffset = this.internalOffset;
+      return copy;
+    }
+    return this;
+  }
+
+  private void copyFromBuffer(final int absoluteOffset, final byte[] target) {
+    // work on a duplicate so that position changes never affect concurrent readers
+    final ByteBuffer source = this.buffer.duplicate();
+    source.position(absoluteOffset);
+    source.get(target);
+  }
+
   /**
    * Returns a new byte array with the original data starting from
    * current internal offset (startOffset + defaultOffset) of given
@@ -368,7 +473,33 @@ public class Memory implements Serializable {
    */
   public byte[] getDataSlice(final int offset, final int length) {
     final byte[] returnValue = new byte[length];
-    System.arraycopy(this.data, this.internalOffset + offset, returnValue, 0, length);
+    if (this.data == null) {
+      copyFromBuffer(this.internalOffset + offset, returnValue);
+    } else {
+      System.arraycopy(this.data, this.internalOffset + offset, returnValue, 0, length);
+    }
     return returnValue;
   }
+
+  /**
+   * Returns a read-only view on the original data starting from
+   * current internal offset (startOffset + defaultOffset) plus given
+   * offset of given length - in contrast to getDataSlice, no data is
+   * copied.
+   * 
+   * @param offset additional offset added to startOffset and defaultOffset.
+   * @param length length of view.
+   * @return read-only view on the data, position 0, limit length.
+   */
+  public ByteBuffer getDataView(final int offset, final int length) {
+    final ByteBuffer view;
+    if (this.data == null) {
+      view = this.buffer.duplicate();
+      view.limit(this.internalOffset + offset + length);
+      view.position(this.internalOffset + offset);
+    } else {
+      view = ByteBuffer.wrap(this.data, this.internalOffset + offset, length);
+    }
+    return view.slice().asReadOnlyBuffer();
+  }
 }
\ No newline at end of file
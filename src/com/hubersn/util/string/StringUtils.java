@@ -28,10 +28,7 @@ public class StringUtils {
    * @param prefix possible prefix to check.
    */
   public static boolean startsWithIgnoreCase(final String s, final String prefix) {
-    if (s.length() < prefix.length()) {
-      return false;
-    }
-    return prefix.equalsIgnoreCase(s.substring(0, prefix.length()));
+    return s.regionMatches(true, 0, prefix, 0, prefix.length());
   }
 
   /**